@@ -0,0 +1,444 @@
+package Crawler;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// One crawler process of a multi-process crawl. Hosts are assigned to nodes by HostPartitioner,
+// so a host's robots.txt, politeness and visited URLs live on exactly one node. Out-links to hosts
+// of other nodes are buffered per node and forwarded in batches; each node writes page ids from
+// its own range of ID_RANGE_SIZE ids. Node 0 is the coordinator: it seeds the crawl, adds up the
+// progress the nodes report and tells every node to stop once the page budget is reached. When
+// the crawl ends the nodes exchange their URL -> id maps, so links across nodes reach url_graph.
+//
+// The protocol is a persistent TCP connection per pair of nodes carrying DataOutputStream
+// messages, each starting with a type byte:
+//   URLS      count, then (UTF url, double cash) per URL
+//   PROGRESS  node, pages crawled by that node       (to the coordinator)
+//   STOP                                             (from the coordinator)
+//   IDS       count, then (long url fingerprint, int id) per page
+//   IDS_DONE  node, after the last IDS message of that node
+//
+// The cluster file lists one host:port per line, line i (ignoring blanks and # comments) being node i.
+public class ClusterNode {
+    public static final int ID_RANGE_SIZE = 1 << 24; // page ids per node, enough for 128 nodes
+    private static final int FORWARD_BATCH_SIZE = 500;
+    private static final long FORWARD_INTERVAL_MS = 200;
+    private static final int MAX_BUFFERED_URLS = 100000; // per node, the oldest are dropped while it is unreachable
+    // URLs are sent with writeUTF, at most 65535 bytes and up to 3 bytes per char; longer ones are dropped
+    private static final int MAX_FORWARDED_URL_LENGTH = 8192;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final long ID_EXCHANGE_TIMEOUT_MS = 60 * 1000;
+    private static final int ID_BATCH_SIZE = 10000;
+
+    private static final byte URLS = 1;
+    private static final byte PROGRESS = 2;
+    private static final byte STOP = 3;
+    private static final byte IDS = 4;
+    private static final byte IDS_DONE = 5;
+
+    private final int nodeId;
+    private final HostPartitioner partitioner;
+    private final Peer[] peers; // null at this node's own index
+    private final ServerSocket serverSocket;
+    private final int maxPages;
+    private final long[] progress; // pages per node, kept by the coordinator
+    private final CountDownLatch idsReceived;
+    private volatile URLFrontier frontier;
+    private volatile LinkGraph linkGraph;
+    private volatile boolean stopped = false;
+    private volatile boolean closed = false;
+    private Thread acceptThread;
+    private Thread forwardThread;
+
+    private record ForwardedUrl(String url, double cash) {
+    }
+
+    private interface Message {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Connection to another node, opened on first use and reopened after a failure
+    private static class Peer {
+        final InetSocketAddress address;
+        final ArrayDeque<ForwardedUrl> buffer = new ArrayDeque<>();
+        private Socket socket;
+        private DataOutputStream out;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        // Returns false if the node could not be reached, the message may then be sent again
+        synchronized boolean send(Message message) {
+            try {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.connect(address, CONNECT_TIMEOUT_MS);
+                    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+                }
+                message.write(out);
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        synchronized void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already broken
+                }
+                socket = null;
+                out = null;
+            }
+        }
+    }
+
+    // Binds this node's port; nothing is received or forwarded before start
+    public ClusterNode(List<InetSocketAddress> nodes, int nodeId, int maxPages) throws IOException {
+        if (nodeId < 0 || nodeId >= nodes.size()) {
+            throw new IllegalArgumentException("Node " + nodeId + " is not in the cluster of " + nodes.size() + " nodes");
+        }
+        this.nodeId = nodeId;
+        this.maxPages = maxPages;
+        this.partitioner = new HostPartitioner(nodes.size());
+        this.peers = new Peer[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i != nodeId) {
+                peers[i] = new Peer(nodes.get(i));
+            }
+        }
+        this.progress = new long[nodes.size()];
+        this.idsReceived = new CountDownLatch(nodes.size() - 1);
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(nodes.get(nodeId).getPort()));
+    }
+
+    // Reads the node list of a cluster file
+    public static List<InetSocketAddress> readNodes(String path) throws IOException {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IOException("Expected host:port in cluster file: " + line);
+            }
+            try {
+                nodes.add(new InetSocketAddress(line.substring(0, colon), Integer.parseInt(line.substring(colon + 1))));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid port in cluster file: " + line);
+            }
+        }
+        if (nodes.isEmpty()) {
+            throw new IOException("No nodes in cluster file " + path);
+        }
+        return nodes;
+    }
+
+    // Starts accepting URLs and ids from the other nodes and forwarding ours
+    public void start(URLFrontier frontier, LinkGraph linkGraph) {
+        this.frontier = frontier;
+        this.linkGraph = linkGraph;
+        acceptThread = new Thread(this::acceptLoop, "Cluster-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        forwardThread = new Thread(this::forwardLoop, "Cluster-forward");
+        forwardThread.setDaemon(true);
+        forwardThread.start();
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isCoordinator() {
+        return nodeId == 0;
+    }
+
+    public int nodeCount() {
+        return peers.length;
+    }
+
+    // First page id of this node's range
+    public int idRangeStart() {
+        return nodeId * ID_RANGE_SIZE;
+    }
+
+    // True if this node crawls the URL's host
+    public boolean isLocal(NormalizedUrl url) {
+        return partitioner.ownerOf(url.host()) == nodeId;
+    }
+
+    // Queues a URL of another node's host for the next batch to that node. A URL too long to encode
+    // is dropped here: in a batch it would fail every send and stall forwarding to that node.
+    public void forward(NormalizedUrl url, double cash) {
+        Peer peer = peers[partitioner.ownerOf(url.host())];
+        String forwardedUrl = url.toString();
+        if (peer == null || stopped || forwardedUrl.length() > MAX_FORWARDED_URL_LENGTH) {
+            return;
+        }
+        synchronized (peer.buffer) {
+            if (peer.buffer.size() >= MAX_BUFFERED_URLS) {
+                peer.buffer.pollFirst();
+            }
+            peer.buffer.addLast(new ForwardedUrl(forwardedUrl, cash));
+        }
+    }
+
+    // URLs waiting to be forwarded, over all nodes
+    public long bufferedUrls() {
+        long total = 0;
+        for (Peer peer : peers) {
+            if (peer != null) {
+                synchronized (peer.buffer) {
+                    total += peer.buffer.size();
+                }
+            }
+        }
+        return total;
+    }
+
+    // True once the coordinator ended the crawl
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    // Called periodically with the number of pages this node has crawled
+    public void reportProgress(long pages) {
+        if (isCoordinator()) {
+            recordProgress(nodeId, pages);
+        } else {
+            peers[0].send(out -> {
+                out.writeByte(PROGRESS);
+                out.writeInt(nodeId);
+                out.writeLong(pages);
+            });
+        }
+    }
+
+    // Coordinator only: stops the cluster once the nodes together reached the page budget
+    private void recordProgress(int node, long pages) {
+        boolean stopNow;
+        synchronized (progress) {
+            progress[node] = pages;
+            long total = 0;
+            for (long nodePages : progress) {
+                total += nodePages;
+            }
+            stopNow = total >= maxPages && !stopped;
+            if (stopNow) {
+                stopped = true;
+            }
+        }
+        if (stopNow) {
+            System.out.println("Cluster reached " + maxPages + " pages, stopping all nodes");
+            for (Peer peer : peers) {
+                if (peer != null) {
+                    peer.send(out -> out.writeByte(STOP));
+                }
+            }
+        } else if (stopped && node != nodeId) {
+            // A node that missed the broadcast learns about it with its next report
+            peers[node].send(out -> out.writeByte(STOP));
+        }
+    }
+
+    // Sends this node's URL -> id map to every other node and waits for theirs, so LinkGraph can
+    // resolve links to pages crawled elsewhere. Called once crawling has stopped.
+    public void exchangeIds(VisitedSet visitedSet) {
+        List<Map.Entry<Long, Integer>> ids = new ArrayList<>(visitedSet.getUrlIds().entrySet());
+        long deadline = System.currentTimeMillis() + ID_EXCHANGE_TIMEOUT_MS;
+        for (int node = 0; node < peers.length; node++) {
+            Peer peer = peers[node];
+            if (peer == null) {
+                continue;
+            }
+            boolean sent = true;
+            for (int from = 0; from < ids.size() && sent; from += ID_BATCH_SIZE) {
+                List<Map.Entry<Long, Integer>> batch = ids.subList(from, Math.min(ids.size(), from + ID_BATCH_SIZE));
+                sent = sendUntil(peer, deadline, out -> {
+                    out.writeByte(IDS);
+                    out.writeInt(batch.size());
+                    for (Map.Entry<Long, Integer> id : batch) {
+                        out.writeLong(id.getKey());
+                        out.writeInt(id.getValue());
+                    }
+                });
+            }
+            if (!sent || !sendUntil(peer, deadline, out -> {
+                out.writeByte(IDS_DONE);
+                out.writeInt(nodeId);
+            })) {
+                System.err.println("Could not send page ids to node " + node + ", its links to this node stay unresolved");
+            }
+        }
+
+        try {
+            if (!idsReceived.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                System.err.println("Timed out waiting for page ids of " + idsReceived.getCount() + " nodes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean sendUntil(Peer peer, long deadline, Message message) {
+        while (!peer.send(message)) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(FORWARD_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void forwardLoop() {
+        while (!closed) {
+            for (Peer peer : peers) {
+                if (peer != null) {
+                    flushForwarded(peer);
+                }
+            }
+            try {
+                Thread.sleep(FORWARD_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Sends the buffered URLs of one node in batches, keeping them for the next round if it is down
+    private void flushForwarded(Peer peer) {
+        while (!stopped) {
+            List<ForwardedUrl> batch = new ArrayList<>(FORWARD_BATCH_SIZE);
+            synchronized (peer.buffer) {
+                while (batch.size() < FORWARD_BATCH_SIZE && !peer.buffer.isEmpty()) {
+                    batch.add(peer.buffer.pollFirst());
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            boolean sent = peer.send(out -> {
+                out.writeByte(URLS);
+                out.writeInt(batch.size());
+                for (ForwardedUrl forwarded : batch) {
+                    out.writeUTF(forwarded.url());
+                    out.writeDouble(forwarded.cash());
+                }
+            });
+            if (!sent) {
+                synchronized (peer.buffer) {
+                    for (int i = batch.size() - 1; i >= 0 && peer.buffer.size() < MAX_BUFFERED_URLS; i--) {
+                        peer.buffer.addFirst(batch.get(i));
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().name("Cluster-receive").start(() -> receive(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Error accepting cluster connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void receive(Socket socket) {
+        try (socket; DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024))) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                switch (type) {
+                    case URLS -> {
+                        int count = in.readInt();
+                        for (int i = 0; i < count; i++) {
+                            String url = in.readUTF();
+                            double cash = in.readDouble();
+                            if (!stopped) {
+                                frontier.addRemoteURL(url, cash);
+                            }
+                        }
+                    }
+                    case PROGRESS -> {
+                        int node = in.readInt();
+                        long pages = in.readLong();
+                        if (isCoordinator() && node > 0 && node < peers.length) {
+                            recordProgress(node, pages);
+                        }
+                    }
+                    case STOP -> stopped = true;
+                    case IDS -> {
+                        int count = in.readInt();
+                        for (int i = 0; i < count; i++) {
+                            long fingerprint = in.readLong();
+                            int id = in.readInt();
+                            linkGraph.addRemoteId(fingerprint, id);
+                        }
+                    }
+                    case IDS_DONE -> {
+                        in.readInt();
+                        idsReceived.countDown();
+                    }
+                    default -> throw new IOException("Unknown cluster message type " + type);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Error reading from cluster connection: " + e.getMessage());
+            }
+        }
+    }
+
+    // Stops forwarding and closes every connection
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing cluster socket: " + e.getMessage());
+        }
+        if (forwardThread != null) {
+            forwardThread.interrupt();
+        }
+        for (Peer peer : peers) {
+            if (peer != null) {
+                peer.close();
+            }
+        }
+    }
+}
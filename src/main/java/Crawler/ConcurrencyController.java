@@ -0,0 +1,211 @@
+package Crawler;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+// Adapts the number of concurrent fetches to what the network and the hosts sustain, between 1 and
+// the maximum given at startup. Fetch workers take a slot with acquire before asking the frontier for
+// a URL. Every WINDOW_MS the outcomes of the window are judged: more than MAX_ERROR_RATE errors, more
+// than MAX_TIMEOUT_RATE timeouts or a median latency above LATENCY_TOLERANCE times the baseline
+// (the lowest window median seen, drifting up slowly) cut the limit by DECREASE_FACTOR; otherwise, if
+// the workers used every slot, the limit grows, doubling until the first cut and by INCREASE_STEP
+// after it (slow start, then AIMD).
+//
+// 429 and 503 answers are the host's business rather than a sign of overall overload: the host is
+// backed off for its Retry-After time, or exponentially longer on every throttled answer in a row.
+public class ConcurrencyController {
+    private static final int MIN_LIMIT = 1;
+    private static final int INITIAL_LIMIT = 4;
+    private static final long WINDOW_MS = 1000;
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    private static final double MAX_ERROR_RATE = 0.1;
+    private static final double MAX_TIMEOUT_RATE = 0.05;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BASELINE_DRIFT = 1.01; // per window, so a lasting change in latency becomes the new baseline
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final int INCREASE_STEP = 2;
+    private static final long BASE_HOST_BACKOFF_MS = 2000;
+    private static final long MAX_HOST_BACKOFF_MS = 60 * 60 * 1000;
+
+    // How a fetch ended, as far as the controller is concerned
+    public enum Outcome {
+        SUCCESS,   // any answer that is not an error, 4xx included
+        ERROR,     // 5xx (except 503) or a failed connection
+        TIMEOUT,   // connect or request timeout
+        THROTTLED  // 429 or 503
+    }
+
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private int limit;
+    private int inFlight = 0;
+    private boolean slowStart = true;
+    private double baselineMillis = 0;
+
+    // Current window
+    private long windowStart = System.currentTimeMillis();
+    private int samples = 0;
+    private int errors = 0;
+    private int timeouts = 0;
+    private boolean saturated = false;
+    private LatencyHistogram windowLatency = new LatencyHistogram();
+
+    // Throttled answers in a row per host, removed on the host's next good answer
+    private final Map<String, Integer> hostStrikes = new ConcurrentHashMap<>();
+    private BiConsumer<String, Long> hostBackoffListener;
+
+    public ConcurrencyController(int maxLimit) {
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.limit = Math.min(this.maxLimit, INITIAL_LIMIT);
+    }
+
+    // Receives (host, milliseconds) for every throttled host, e.g. URLFrontier.backOffHost
+    public void setHostBackoffListener(BiConsumer<String, Long> listener) {
+        this.hostBackoffListener = listener;
+    }
+
+    // Waits for a free slot. Returns false if the caller was interrupted.
+    public boolean acquire() {
+        lock.lock();
+        try {
+            while (inFlight >= limit) {
+                slotFreed.await();
+            }
+            inFlight++;
+            if (inFlight >= limit) {
+                saturated = true;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Records a finished fetch; retryAfter is the Retry-After header of a throttled answer, or null
+    public void record(String host, Outcome outcome, String retryAfter, long nanos) {
+        if (outcome == Outcome.THROTTLED) {
+            throttled(host, retryAfter);
+        } else if (outcome == Outcome.SUCCESS && host != null) {
+            hostStrikes.remove(host);
+        }
+
+        lock.lock();
+        try {
+            samples++;
+            switch (outcome) {
+                case SUCCESS -> windowLatency.record(nanos);
+                case ERROR -> errors++;
+                case TIMEOUT -> timeouts++;
+                case THROTTLED -> {
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= WINDOW_MS && samples >= MIN_WINDOW_SAMPLES) {
+                adjust();
+                windowStart = now;
+                samples = 0;
+                errors = 0;
+                timeouts = 0;
+                saturated = inFlight >= limit;
+                windowLatency = new LatencyHistogram();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Judges the finished window, must be called while holding lock
+    private void adjust() {
+        boolean congested = (double) errors / samples > MAX_ERROR_RATE || (double) timeouts / samples > MAX_TIMEOUT_RATE;
+        if (windowLatency.getCount() > 0) {
+            double median = windowLatency.getPercentileMillis(0.5);
+            congested |= baselineMillis > 0 && median > LATENCY_TOLERANCE * baselineMillis;
+            baselineMillis = baselineMillis == 0 ? median : Math.min(median, baselineMillis * BASELINE_DRIFT);
+        }
+
+        int previous = limit;
+        if (congested) {
+            slowStart = false;
+            limit = Math.max(MIN_LIMIT, (int) (limit * DECREASE_FACTOR));
+        } else if (saturated) {
+            limit = Math.min(maxLimit, slowStart ? limit * 2 : limit + INCREASE_STEP);
+        }
+        if (limit > previous) {
+            slotFreed.signalAll();
+        }
+    }
+
+    private void throttled(String host, String retryAfter) {
+        if (host == null) {
+            return;
+        }
+        int strikes = hostStrikes.merge(host, 1, Integer::sum);
+        long delay = parseRetryAfter(retryAfter);
+        if (delay < 0) {
+            delay = BASE_HOST_BACKOFF_MS << Math.min(strikes - 1, 20);
+        }
+        delay = Math.min(delay, MAX_HOST_BACKOFF_MS);
+        CrawlerMetrics.hostThrottled();
+        BiConsumer<String, Long> listener = hostBackoffListener;
+        if (listener != null) {
+            listener.accept(host, delay);
+        }
+    }
+
+    // Retry-After is either delay-seconds or an HTTP-date; returns -1 if missing or invalid
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return -1;
+        }
+        String value = retryAfter.trim();
+        try {
+            return Math.max(0, Math.min(Long.parseLong(value), MAX_HOST_BACKOFF_MS / 1000) * 1000);
+        } catch (NumberFormatException e) {
+            // Not a number, try the date form
+        }
+        try {
+            long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, at - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
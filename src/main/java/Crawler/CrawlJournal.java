@@ -0,0 +1,318 @@
+package Crawler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Append-only log of crawl state changes, so a crash loses at most the last unflushed second.
+// Components apply a change first and journal it afterwards; replay is idempotent, so a snapshot
+// taken while the crawl keeps running plus every journal written since its rotation gives back
+// (at least) the state at the time of the crash.
+//
+// Layout in the journal directory:
+//   journal-<generation>.log   records, one file per generation
+//   snapshot                   generation whose journal starts right after the current *.ser snapshot
+public class CrawlJournal {
+    private static final byte VISITED_URL = 1;
+    private static final byte VISITED_PAGE = 2;
+    private static final byte URL_ID = 3;
+    private static final byte FRONTIER_PUSH = 4; // journals before cash was recorded, replayed with the initial cash
+    private static final byte FRONTIER_POP = 5;
+    private static final byte ROBOTS = 6;
+    private static final byte UNVISITED_URL = 7;
+    private static final byte FRONTIER_PUSH_CASH = 8;
+    private static final byte FRONTIER_CASH = 9;
+
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+    private static final String SNAPSHOT_MARKER = "snapshot";
+
+    private interface Record {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final Path journalDir;
+    // Holds the record being encoded, guarded by this
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+    private DataOutputStream out;
+    private FileOutputStream fileOut;
+    private long generation;
+
+    // Opens a new journal generation. A fresh crawl removes the journals and snapshot marker of the previous one.
+    public CrawlJournal(String journalDir, boolean fresh) throws IOException {
+        this.journalDir = Paths.get(journalDir);
+        Files.createDirectories(this.journalDir);
+        if (fresh) {
+            for (Path file : listFiles(this.journalDir)) {
+                Files.delete(file);
+            }
+        }
+        List<Long> generations = journalGenerations(this.journalDir);
+        generation = generations.isEmpty() ? 0 : generations.get(generations.size() - 1) + 1;
+        open();
+    }
+
+    private void open() throws IOException {
+        fileOut = new FileOutputStream(journalDir.resolve(JOURNAL_PREFIX + generation + JOURNAL_SUFFIX).toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+    }
+
+    public void visitedUrl(long fingerprint) {
+        append(record -> {
+            record.writeByte(VISITED_URL);
+            record.writeLong(fingerprint);
+        });
+    }
+
+    public void unvisitedUrl(long fingerprint) {
+        append(record -> {
+            record.writeByte(UNVISITED_URL);
+            record.writeLong(fingerprint);
+        });
+    }
+
+    public void visitedPage(long fingerprint) {
+        append(record -> {
+            record.writeByte(VISITED_PAGE);
+            record.writeLong(fingerprint);
+        });
+    }
+
+    public void urlId(long fingerprint, int id) {
+        append(record -> {
+            record.writeByte(URL_ID);
+            record.writeLong(fingerprint);
+            record.writeInt(id);
+        });
+    }
+
+    // A URL queued with cash
+    public void frontierPush(String url, double cash) {
+        append(record -> {
+            record.writeByte(FRONTIER_PUSH_CASH);
+            record.writeUTF(url);
+            record.writeDouble(cash);
+        });
+    }
+
+    // Cash added to a URL that was already queued
+    public void frontierCash(String url, double cash) {
+        append(record -> {
+            record.writeByte(FRONTIER_CASH);
+            record.writeUTF(url);
+            record.writeDouble(cash);
+        });
+    }
+
+    public void frontierPop(String url) {
+        append(record -> {
+            record.writeByte(FRONTIER_POP);
+            record.writeUTF(url);
+        });
+    }
+
+    // content is the raw robots.txt, empty when the host is allowed everything
+    public void robots(String baseUrl, String content, long fetchedAt) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        append(record -> {
+            record.writeByte(ROBOTS);
+            record.writeUTF(baseUrl);
+            record.writeLong(fetchedAt);
+            record.writeInt(bytes.length);
+            record.write(bytes);
+        });
+    }
+
+    // Encodes a record into recordBytes and appends it only once it is complete. A record that fails
+    // to encode (writeUTF refuses strings over 65535 bytes) is left out entirely, a partial one would
+    // make replay read the following records out of step.
+    private synchronized void append(Record record) {
+        recordBytes.reset();
+        try {
+            record.write(recordOut);
+        } catch (IOException e) {
+            System.err.println("Skipping crawl journal record: " + e.getMessage());
+            return;
+        }
+        try {
+            recordBytes.writeTo(out);
+        } catch (IOException e) {
+            System.err.println("Error writing crawl journal: " + e.getMessage());
+        }
+    }
+
+    // Pushes buffered records to the OS, called about once a second
+    public synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Error flushing crawl journal: " + e.getMessage());
+        }
+    }
+
+    // Takes a compacted snapshot: rotates to a new journal generation, saves every component, then
+    // records the new generation as the replay start and deletes the journals the snapshot covers.
+    public void snapshot(VisitedSet visitedSet, URLFrontier frontier, RobotsTxtParser robotsParser, String statesDir) {
+        long snapshotGeneration;
+        synchronized (this) {
+            try {
+                closeCurrent();
+                generation++;
+                open();
+            } catch (IOException e) {
+                System.err.println("Error rotating crawl journal: " + e.getMessage());
+                return;
+            }
+            snapshotGeneration = generation;
+        }
+
+        boolean saved = saveAtomically(statesDir + "visited_set.ser", visitedSet::serialize)
+                && saveAtomically(statesDir + "robots_cache.ser", robotsParser::serialize)
+                && frontier.serialize();
+        if (!saved) {
+            // Keep the old marker, the older journals are still there to replay
+            return;
+        }
+
+        try {
+            Path tmp = journalDir.resolve(SNAPSHOT_MARKER + ".tmp");
+            Files.writeString(tmp, Long.toString(snapshotGeneration));
+            Files.move(tmp, journalDir.resolve(SNAPSHOT_MARKER), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (long old : journalGenerations(journalDir)) {
+                if (old < snapshotGeneration) {
+                    Files.deleteIfExists(journalDir.resolve(JOURNAL_PREFIX + old + JOURNAL_SUFFIX));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error recording crawl snapshot: " + e.getMessage());
+        }
+    }
+
+    private interface Saver {
+        boolean save(String filePath);
+    }
+
+    private static boolean saveAtomically(String filePath, Saver saver) {
+        String tmp = filePath + ".tmp";
+        if (!saver.save(tmp)) {
+            return false;
+        }
+        try {
+            Files.move(Paths.get(tmp), Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving " + filePath + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void closeCurrent() throws IOException {
+        out.flush();
+        fileOut.getFD().sync();
+        out.close();
+    }
+
+    public synchronized void close() {
+        try {
+            closeCurrent();
+        } catch (IOException e) {
+            System.err.println("Error closing crawl journal: " + e.getMessage());
+        }
+    }
+
+    // Re-applies every journal written since the last snapshot. Must run before the components are
+    // attached to a journal, so replayed changes are not journaled again. A torn record at the end
+    // of a journal (crash mid-write) ends the replay of that file.
+    public static void replay(String journalDir, VisitedSet visitedSet, URLFrontier frontier, RobotsTxtParser robotsParser) {
+        Path dir = Paths.get(journalDir);
+        long start = 0;
+        try {
+            Path marker = dir.resolve(SNAPSHOT_MARKER);
+            if (Files.exists(marker)) {
+                start = Long.parseLong(Files.readString(marker).trim());
+            }
+
+            // Pushes popped within the tail are dropped; pops of snapshot URLs need nothing,
+            // those URLs are already in the visited set and get skipped when they come up.
+            // URL -> {times pushed and not popped, cash collected since it was first pushed}
+            LinkedHashMap<String, double[]> pushed = new LinkedHashMap<>();
+            long records = 0;
+            for (long gen : journalGenerations(dir)) {
+                if (gen < start) {
+                    continue;
+                }
+                Path file = dir.resolve(JOURNAL_PREFIX + gen + JOURNAL_SUFFIX);
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    while (true) {
+                        int type = in.read();
+                        if (type < 0) {
+                            break;
+                        }
+                        switch (type) {
+                            case VISITED_URL -> visitedSet.restoreVisitedUrl(in.readLong());
+                            case UNVISITED_URL -> visitedSet.restoreUnvisitedUrl(in.readLong());
+                            case VISITED_PAGE -> visitedSet.restoreVisitedPage(in.readLong());
+                            case URL_ID -> visitedSet.restoreUrlId(in.readLong(), in.readInt());
+                            case FRONTIER_PUSH -> replayPush(pushed, in.readUTF(), URLFrontier.INITIAL_CASH);
+                            case FRONTIER_PUSH_CASH -> replayPush(pushed, in.readUTF(), in.readDouble());
+                            case FRONTIER_CASH -> {
+                                String url = in.readUTF();
+                                double cash = in.readDouble();
+                                double[] entry = pushed.get(url);
+                                if (entry != null) {
+                                    entry[1] += cash;
+                                }
+                            }
+                            case FRONTIER_POP -> pushed.computeIfPresent(in.readUTF(), (url, entry) -> --entry[0] > 0 ? entry : null);
+                            case ROBOTS -> {
+                                String baseUrl = in.readUTF();
+                                long fetchedAt = in.readLong();
+                                byte[] bytes = new byte[in.readInt()];
+                                in.readFully(bytes);
+                                robotsParser.restoreRules(baseUrl, new String(bytes, StandardCharsets.UTF_8), fetchedAt);
+                            }
+                            default -> throw new EOFException("Unknown record type " + type);
+                        }
+                        records++;
+                    }
+                } catch (EOFException | UTFDataFormatException e) {
+                    System.err.println("Crawl journal " + file.getFileName() + " ends with a partial record, stopping there.");
+                }
+            }
+
+            for (Map.Entry<String, double[]> entry : pushed.entrySet()) {
+                frontier.restoreURL(entry.getKey(), entry.getValue()[1]);
+            }
+            System.out.println("Replayed " + records + " crawl journal records.");
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error replaying crawl journal: " + e.getMessage());
+        }
+    }
+
+    private static void replayPush(Map<String, double[]> pushed, String url, double cash) {
+        double[] entry = pushed.computeIfAbsent(url, k -> new double[2]);
+        entry[0]++;
+        entry[1] += cash;
+    }
+
+    private static List<Long> journalGenerations(Path dir) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        for (Path file : listFiles(dir)) {
+            String name = file.getFileName().toString();
+            if (name.startsWith(JOURNAL_PREFIX) && name.endsWith(JOURNAL_SUFFIX)) {
+                generations.add(Long.parseLong(name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length())));
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private static List<Path> listFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.toList();
+        }
+    }
+}
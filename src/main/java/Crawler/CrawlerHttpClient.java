@@ -0,0 +1,70 @@
+package Crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+// The HTTP layer every crawler request goes through: pages, robots.txt and recrawls share one
+// HttpClient. It keeps idle keep-alive connections pooled per host (HTTP/2 ones are multiplexed),
+// so the next request to a host reuses the connection and TLS session of the previous one instead
+// of another handshake. Creating one installs DnsCache, host names are resolved through it from
+// then on, and prefetch warms that cache as soon as a host is queued.
+public class CrawlerHttpClient {
+    // One connect timeout for the whole client; long enough that a slow robots.txt host is not
+    // mistaken for one without robots.txt, short enough not to hold a fetch slot on a dead host
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+
+    private final HttpClient client;
+    private final String userAgent;
+
+    public CrawlerHttpClient(String userAgent) {
+        this.userAgent = userAgent;
+        DnsCache.install();
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    // Sends a GET with our User-Agent and the given extra headers (name, value pairs).
+    // The caller must close the response body so the connection goes back to the pool.
+    public HttpResponse<InputStream> get(String url, Duration timeout, String... headers) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header("User-Agent", userAgent)
+                .GET();
+        if (headers.length > 0) {
+            builder.headers(headers);
+        }
+        return client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    // Fetches a small UTF-8 text resource such as robots.txt, at most maxBytes of it.
+    // Returns null unless the server answered 200.
+    public String getText(String url, Duration timeout, int maxBytes) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = get(url, timeout);
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                return null;
+            }
+            return new String(body.readNBytes(maxBytes), StandardCharsets.UTF_8);
+        }
+    }
+
+    // Resolves the host of a URL in the background, called when the host enters the frontier
+    public void prefetch(String url) {
+        DnsCache.prefetch(URLNormalizer.extractDomain(url));
+    }
+
+    // Closes the pooled connections, called once nothing fetches anymore
+    public void close() {
+        client.close();
+    }
+}
@@ -0,0 +1,308 @@
+package Crawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+
+// Live crawler telemetry. The crawler threads, the fetcher and the Mongo writer record into the
+// static counters and histograms here; main registers gauges (frontier size, queue depths) and
+// prints summaryLine periodically, and serve exposes everything in the Prometheus text format
+// on a local port. Recording is lock-free so it can stay on in every crawl.
+public final class CrawlerMetrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final int TOP_HOSTS = 10; // hosts listed with their queue depth
+
+    // Response classes fetch latency is split by; ERROR is a fetch that got no response
+    public enum StatusClass {
+        S2XX("2xx"), S3XX("3xx"), S4XX("4xx"), S5XX("5xx"), ERROR("error");
+
+        private final String label;
+
+        StatusClass(String label) {
+            this.label = label;
+        }
+
+        static StatusClass of(int status) {
+            return switch (status / 100) {
+                case 2 -> S2XX;
+                case 3 -> S3XX;
+                case 4 -> S4XX;
+                case 5 -> S5XX;
+                default -> ERROR;
+            };
+        }
+    }
+
+    // What a crawler thread spends its time on; summed over all threads this shows whether
+    // the crawl is bound by the network, by politeness, by parsing or by the parser backlog
+    public enum Stage {
+        FRONTIER_WAIT("frontier_wait"),   // waiting for a host to become due
+        FETCH("fetch"),                   // HTTP request and body download
+        HANDOFF_WAIT("handoff_wait"),     // fetcher blocked on a full parser queue
+        PROCESS("process"),               // parse, dedup, store and link extraction
+        PARSER_IDLE("parser_idle");       // parser waiting for fetched pages
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final long START_NANOS = System.nanoTime();
+    private static final Map<StatusClass, LatencyHistogram> FETCH_LATENCY = new EnumMap<>(StatusClass.class);
+    private static final Map<Stage, LongAdder> STAGE_NANOS = new EnumMap<>(Stage.class);
+    private static final LongAdder PAGES_STORED = new LongAdder();
+    private static final LongAdder ROBOTS_DENIALS = new LongAdder();
+    private static final LongAdder HOSTS_THROTTLED = new LongAdder();
+    private static final LongAdder DUPLICATE_URLS = new LongAdder();
+    private static final LongAdder DUPLICATE_PAGES = new LongAdder();
+    private static final LongAdder UNPARSABLE_PAGES = new LongAdder();
+    private static final LongAdder SITEMAPS_READ = new LongAdder();
+    private static final LongAdder SITEMAP_URLS = new LongAdder();
+    private static final LatencyHistogram MONGO_WRITE_LATENCY = new LatencyHistogram();
+    private static final LongAdder MONGO_DOCUMENTS = new LongAdder();
+    private static final LongAdder MONGO_WRITE_ERRORS = new LongAdder();
+    // Registered by main, read on every report
+    private static final Map<String, LongSupplier> GAUGES = new LinkedHashMap<>();
+    private static volatile IntFunction<List<Map.Entry<String, Integer>>> hostQueueDepths;
+
+    // Interval rate of the log line
+    private static long lastSummaryNanos = START_NANOS;
+    private static long lastSummaryPages = 0;
+
+    static {
+        for (StatusClass statusClass : StatusClass.values()) {
+            FETCH_LATENCY.put(statusClass, new LatencyHistogram());
+        }
+        for (Stage stage : Stage.values()) {
+            STAGE_NANOS.put(stage, new LongAdder());
+        }
+    }
+
+    private CrawlerMetrics() {
+    }
+
+    // A fetch that got a response with this status, or status 0 if it failed without one
+    public static void recordFetch(int status, long nanos) {
+        FETCH_LATENCY.get(StatusClass.of(status)).record(nanos);
+    }
+
+    public static void recordStage(Stage stage, long nanos) {
+        STAGE_NANOS.get(stage).add(nanos);
+    }
+
+    public static void pageStored() {
+        PAGES_STORED.increment();
+    }
+
+    public static void robotsDenied() {
+        ROBOTS_DENIALS.increment();
+    }
+
+    // A host answered 429 or 503 and was backed off
+    public static void hostThrottled() {
+        HOSTS_THROTTLED.increment();
+    }
+
+    public static void duplicateUrl() {
+        DUPLICATE_URLS.increment();
+    }
+
+    public static void duplicatePage() {
+        DUPLICATE_PAGES.increment();
+    }
+
+    public static void unparsablePage() {
+        UNPARSABLE_PAGES.increment();
+    }
+
+    // A sitemap (or sitemap index) that was fetched and parsed
+    public static void sitemapRead() {
+        SITEMAPS_READ.increment();
+    }
+
+    // URLs of a sitemap handed to the frontier
+    public static void sitemapUrls(int urls) {
+        SITEMAP_URLS.add(urls);
+    }
+
+    // One insertMany of the write-behind buffer
+    public static void recordMongoWrite(int documents, long nanos, boolean failed) {
+        MONGO_WRITE_LATENCY.record(nanos);
+        MONGO_DOCUMENTS.add(documents);
+        if (failed) {
+            MONGO_WRITE_ERRORS.increment();
+        }
+    }
+
+    public static void registerGauge(String name, LongSupplier value) {
+        synchronized (GAUGES) {
+            GAUGES.put(name, value);
+        }
+    }
+
+    // Source of the largest per-host queues, called with the number of hosts wanted
+    public static void setHostQueueDepths(IntFunction<List<Map.Entry<String, Integer>>> source) {
+        hostQueueDepths = source;
+    }
+
+    // One line for the console: interval page rate, fetch latency, dedup, Mongo and where thread time goes
+    public static synchronized String summaryLine() {
+        long now = System.nanoTime();
+        long pages = PAGES_STORED.sum();
+        double rate = (pages - lastSummaryPages) / Math.max(1e-9, (now - lastSummaryNanos) / 1e9);
+        lastSummaryNanos = now;
+        lastSummaryPages = pages;
+
+        LatencyHistogram ok = FETCH_LATENCY.get(StatusClass.S2XX);
+        StringBuilder line = new StringBuilder();
+        line.append(String.format(Locale.ROOT, "pages %d (%.1f/s) | fetch 2xx p50 %.0fms p99 %.0fms | responses",
+                pages, rate, ok.getPercentileMillis(0.5), ok.getPercentileMillis(0.99)));
+        for (StatusClass statusClass : StatusClass.values()) {
+            line.append(' ').append(statusClass.label).append('=').append(FETCH_LATENCY.get(statusClass).getCount());
+        }
+        line.append(String.format(Locale.ROOT, " | dup pages %.1f%% | robots denied %d | mongo p99 %.0fms",
+                100 * duplicatePageRate(), ROBOTS_DENIALS.sum(), MONGO_WRITE_LATENCY.getPercentileMillis(0.99)));
+        for (Map.Entry<String, Long> gauge : readGauges().entrySet()) {
+            line.append(" | ").append(gauge.getKey()).append(' ').append(gauge.getValue());
+        }
+        long total = 0;
+        for (LongAdder nanos : STAGE_NANOS.values()) {
+            total += nanos.sum();
+        }
+        if (total > 0) {
+            line.append(" | time");
+            for (Stage stage : Stage.values()) {
+                long nanos = STAGE_NANOS.get(stage).sum();
+                if (nanos > 0) {
+                    line.append(' ').append(stage.label).append(' ').append(Math.round(100.0 * nanos / total)).append('%');
+                }
+            }
+        }
+        return line.toString();
+    }
+
+    // Everything in the Prometheus text exposition format
+    public static String render() {
+        StringBuilder out = new StringBuilder();
+        double uptime = (System.nanoTime() - START_NANOS) / 1e9;
+        long pages = PAGES_STORED.sum();
+        metric(out, "crawler_uptime_seconds", "", uptime);
+        metric(out, "crawler_pages_stored_total", "", pages);
+        metric(out, "crawler_pages_per_second", "", pages / Math.max(1e-9, uptime));
+
+        for (StatusClass statusClass : StatusClass.values()) {
+            LatencyHistogram histogram = FETCH_LATENCY.get(statusClass);
+            String label = "status=\"" + statusClass.label + "\"";
+            histogram(out, "crawler_fetch_latency_ms", label, histogram);
+        }
+
+        metric(out, "crawler_robots_denials_total", "", ROBOTS_DENIALS.sum());
+        metric(out, "crawler_host_throttles_total", "", HOSTS_THROTTLED.sum());
+        metric(out, "crawler_duplicate_urls_total", "", DUPLICATE_URLS.sum());
+        metric(out, "crawler_duplicate_pages_total", "", DUPLICATE_PAGES.sum());
+        metric(out, "crawler_duplicate_page_rate", "", duplicatePageRate());
+        metric(out, "crawler_unparsable_pages_total", "", UNPARSABLE_PAGES.sum());
+        metric(out, "crawler_sitemaps_read_total", "", SITEMAPS_READ.sum());
+        metric(out, "crawler_sitemap_urls_total", "", SITEMAP_URLS.sum());
+
+        histogram(out, "crawler_mongo_write_latency_ms", "", MONGO_WRITE_LATENCY);
+        metric(out, "crawler_mongo_documents_total", "", MONGO_DOCUMENTS.sum());
+        metric(out, "crawler_mongo_write_errors_total", "", MONGO_WRITE_ERRORS.sum());
+
+        for (Stage stage : Stage.values()) {
+            metric(out, "crawler_thread_seconds_total", "stage=\"" + stage.label + "\"", STAGE_NANOS.get(stage).sum() / 1e9);
+        }
+        for (Map.Entry<String, Long> gauge : readGauges().entrySet()) {
+            metric(out, "crawler_" + gauge.getKey(), "", gauge.getValue());
+        }
+        IntFunction<List<Map.Entry<String, Integer>>> depths = hostQueueDepths;
+        if (depths != null) {
+            for (Map.Entry<String, Integer> host : depths.apply(TOP_HOSTS)) {
+                metric(out, "crawler_host_queue_depth", "host=\"" + host.getKey().replace("\"", "") + "\"", host.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    // Serves render() at http://127.0.0.1:port/metrics, returns null if the port is taken
+    public static HttpServer serve(int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", CrawlerMetrics::handle);
+            server.setExecutor(null);
+            server.start();
+            return server;
+        } catch (IOException e) {
+            System.err.println("Error starting metrics endpoint on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        byte[] body = render().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // Share of fetched, parsable pages whose content was seen before under another URL
+    private static double duplicatePageRate() {
+        long duplicates = DUPLICATE_PAGES.sum();
+        long seen = duplicates + PAGES_STORED.sum();
+        return seen == 0 ? 0 : (double) duplicates / seen;
+    }
+
+    private static Map<String, Long> readGauges() {
+        List<Map.Entry<String, LongSupplier>> gauges;
+        synchronized (GAUGES) {
+            gauges = new ArrayList<>(GAUGES.entrySet());
+        }
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : gauges) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (double quantile : QUANTILES) {
+            metric(out, name, prefix + "quantile=\"" + quantile + "\"", histogram.getPercentileMillis(quantile));
+        }
+        metric(out, name + "_max", labels, histogram.getMaxMillis());
+        metric(out, name + "_mean", labels, histogram.getMeanMillis());
+        metric(out, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void metric(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.3f", value));
+        }
+        out.append('\n');
+    }
+}
@@ -1,13 +1,5 @@
 package Crawler;
 
-import org.jsoup.*;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
-import java.io.IOException;
-import java.net.SocketTimeoutException;
-import java.text.Normalizer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -20,53 +12,121 @@ public class CrawlerThread implements Runnable {
     private final RobotsTxtParser robotsTxtParser;
     private final URLFrontier frontier;
     private final MongoDBConnection mongoDBConnection;
-    private final int crawlDelay; // Delay in milliseconds
-    private final String userAgent;
+    private final PageFetcher pageFetcher;
+    private final LinkGraph linkGraph;
+    private final ConcurrencyController concurrencyController;
     private static AtomicInteger pageCount = new AtomicInteger(0);
     private static AtomicInteger id = new AtomicInteger(-1);
     public static final int maxPages = 6000;
-    private static final int saving_frequency = 10; // Save every 10 pages
     public final String statesDir;
     private static AtomicBoolean isShuttingDown = new AtomicBoolean(false);
 
-    CrawlerThread(VisitedSet vs, RobotsTxtParser robotsTxtParser, URLFrontier frontier, MongoDBConnection mongoDBConnection, int crawlDelay) {
+    CrawlerThread(VisitedSet vs, RobotsTxtParser robotsTxtParser, URLFrontier frontier, MongoDBConnection mongoDBConnection, LinkGraph linkGraph, PageFetcher pageFetcher,
+                  ConcurrencyController concurrencyController) {
         this.visitedSet = vs;
+        this.linkGraph = linkGraph;
         this.robotsTxtParser = robotsTxtParser;
         this.frontier = frontier;
-        this.crawlDelay = crawlDelay;
-        userAgent = "MAMA_Search";
+        this.pageFetcher = pageFetcher;
+        this.concurrencyController = concurrencyController;
         this.mongoDBConnection = mongoDBConnection;
         this.statesDir = System.getProperty("user.dir") + "/States/";
     }
 
-    private void processUrl(String url) {
+    // A URL that was fetched, page is null if the fetch failed
+    private record FetchResult(NormalizedUrl url, PageFetcher.FetchedPage page) {
+    }
+
+    // Takes a fetch slot, then the next due URL, and fetches it. The slot is taken first so a thread
+    // waiting for one does not hold a host. Returns null if no URL was due or it was skipped; the
+    // host is released and the slot given back before returning.
+    private FetchResult fetchNext() {
+        if (!concurrencyController.acquire()) {
+            return null;
+        }
+        try {
+            // Blocks briefly until some host is due, so no fixed sleep is needed here
+            long waitStart = System.nanoTime();
+            String url = frontier.getNextURL();
+            CrawlerMetrics.recordStage(CrawlerMetrics.Stage.FRONTIER_WAIT, System.nanoTime() - waitStart);
+            if (url == null) {
+                return null;
+            }
+
+            // The frontier enforces the crawl delay per host once the host is released
+            NormalizedUrl normalizedUrl = null;
+            PageFetcher.FetchedPage page = null;
+            try {
+                normalizedUrl = prepareUrl(url);
+                if (normalizedUrl != null) {
+                    long start = System.nanoTime();
+                    page = pageFetcher.fetch(normalizedUrl.toString());
+                    CrawlerMetrics.recordStage(CrawlerMetrics.Stage.FETCH, System.nanoTime() - start);
+                }
+            } finally {
+                frontier.releaseHost(url, normalizedUrl != null);
+            }
+            if (page != null && page.isThrottled()) {
+                // The host is backed off now; the URL goes back with its cash and is fetched again
+                // once the backoff has passed
+                pageCount.decrementAndGet();
+                visitedSet.removeVisitedUrl(normalizedUrl);
+                frontier.retryURL(url);
+                return null;
+            }
+            return normalizedUrl == null ? null : new FetchResult(normalizedUrl, page);
+        } finally {
+            concurrencyController.release();
+        }
+    }
+
+    // Reserves a page slot and runs the checks that need no fetch.
+    // Returns the normalized URL to fetch, or null (with the slot released) if it should be skipped.
+    private NormalizedUrl prepareUrl(String url) {
         if (pageCount.incrementAndGet() > maxPages) {
             pageCount.decrementAndGet();
             Thread.currentThread().interrupt();
-            return;
+            return null;
         }
 
         if (url == null) {
             pageCount.decrementAndGet();
-            return;
+            return null;
         }
 
-        // Normalize URL
-        String normalizedUrl = URLNormalizer.normalize(url);
-        if (normalizedUrl == null || visitedSet.checkAndAddVisitedUrl(normalizedUrl)) {
+        // Normalize URL once, the parsed form is passed to every check below
+        NormalizedUrl normalizedUrl = URLNormalizer.parse(url);
+        if (normalizedUrl == null) {
             pageCount.decrementAndGet();
-            return;
+            return null;
+        }
+        if (visitedSet.checkAndAddVisitedUrl(normalizedUrl)) {
+            CrawlerMetrics.duplicateUrl();
+            pageCount.decrementAndGet();
+            return null;
         }
 
         // Check robots.txt rules
         if (!robotsTxtParser.isAllowed(normalizedUrl)) {
+            CrawlerMetrics.robotsDenied();
             pageCount.decrementAndGet();
-            return;
+            return null;
         }
 
-        Document doc = getDocument(normalizedUrl);
-        if (doc == null || visitedSet.checkAndAddVisitedPage(doc)) {
+        return normalizedUrl;
+    }
+
+    // Parses, deduplicates, stores and extracts links from a fetched page (null if the fetch failed)
+    private void processPage(NormalizedUrl normalizedUrl, PageFetcher.FetchedPage page) {
+        HtmlExtractor.Content content = page == null ? null : page.extract();
+        if (content == null || visitedSet.checkAndAddVisitedPage(content.fingerprint())) {
+            if (content != null) {
+                CrawlerMetrics.duplicatePage();
+            } else if (page != null) {
+                CrawlerMetrics.unparsablePage();
+            }
             pageCount.decrementAndGet();
+            frontier.completeURL(normalizedUrl.toString(), List.of());
             return;
         }
 
@@ -75,79 +135,79 @@ public class CrawlerThread implements Runnable {
         // Map the URL to an ID
         visitedSet.mapUrlToId(normalizedUrl, currentId);
 
-        // Add the document to the database
-        mongoDBConnection.insertCrawledPage(currentId, normalizedUrl, doc.title(), doc.html());
+        // Store the extracted fields for the indexer, the raw response (compressed) and the
+        // validators and fingerprint a recrawl compares against
+        mongoDBConnection.insertCrawledPage(currentId, normalizedUrl.toString(), content, page.body(),
+                page.contentType(), page.etag(), page.lastModified());
+        CrawlerMetrics.pageStored();
         // Extract and add new URLs to the frontier
-        ArrayList<String> urls = extractUrls(doc);
-        urls = urls.stream()
-                .map(URLNormalizer::normalize)
+        List<NormalizedUrl> urls = content.links().stream()
+                .map(URLNormalizer::parse)
                 .filter(Objects::nonNull)
                 .distinct()
                 .collect(Collectors.toCollection(ArrayList::new));
 
-        visitedSet.addUrlExtractedUrls(normalizedUrl, urls);
-
-        for (String extractedUrl : urls) {
-            if (extractedUrl != null && !visitedSet.checkVisitedUrl(extractedUrl)) {
-                frontier.addURL(extractedUrl);
-            }
-        }
+        linkGraph.addPage(currentId, urls);
 
+        // Queues the links not visited yet, each with its share of this page's importance
+        frontier.completeURL(normalizedUrl.toString(), urls);
     }
 
-    private ArrayList<String> extractUrls(Document doc) {
-        ArrayList<String> urls = new ArrayList<>();
-        Elements links = doc.select("a[href]");
-        for (Element link : links) {
-            urls.add(link.attr("abs:href"));
+    @Override
+    public void run() {
+        while (!isShuttingDown.get() && !Thread.currentThread().isInterrupted()) {
+            FetchResult result = fetchNext();
+            if (result == null) {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            processPage(result.url(), result.page());
+            CrawlerMetrics.recordStage(CrawlerMetrics.Stage.PROCESS, System.nanoTime() - start);
         }
-        return urls;
     }
 
-    private Document getDocument(String url) {
-        try {
-            // Increase timeout values (in milliseconds)
-            return Jsoup.connect(url)
-                    .timeout(1000)          // Connect timeout
-                    .maxBodySize(1024 * 1024) // Max body size (1MB)
-                    .followRedirects(true)
-                    .userAgent(userAgent)
-                    .ignoreHttpErrors(true)  // Don't throw exceptions for 4xx/5xx errors
-                    .get();
-        } catch (UncheckedIOException e) {
-            if (e.getCause() instanceof SocketTimeoutException) {
-                return null;
+    // Asynchronous mode, fetch stage: run on many virtual threads, each one blocks on a request
+    // without holding an OS thread and hands the body to the parser threads.
+    public void fetchLoop() {
+        while (!isShuttingDown.get() && !Thread.currentThread().isInterrupted()) {
+            FetchResult result = fetchNext();
+            if (result == null) {
+                continue;
+            }
+
+            if (result.page() == null) {
+                pageCount.decrementAndGet();
+                frontier.completeURL(result.url().toString(), List.of());
+                continue;
+            }
+            long handoffStart = System.nanoTime();
+            boolean handedOff = pageFetcher.handOff(result.page());
+            CrawlerMetrics.recordStage(CrawlerMetrics.Stage.HANDOFF_WAIT, System.nanoTime() - handoffStart);
+            if (!handedOff) {
+                pageCount.decrementAndGet();
+                frontier.completeURL(result.url().toString(), List.of());
             }
-            return null;
-        } catch (IOException e) {
-            return null;
         }
     }
 
-    @Override
-    public void run() {
-
+    // Asynchronous mode, parse stage: run on a few platform threads until the fetch stage is drained
+    public void parseLoop() {
         while (!isShuttingDown.get() && !Thread.currentThread().isInterrupted()) {
-            String url = frontier.getNextURL();
-            if (url == null) {
-                try {
-                    Thread.sleep(50); // Prevent tight busy loop
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break; // Exit if the thread is interrupted
+            long waitStart = System.nanoTime();
+            PageFetcher.FetchedPage page = pageFetcher.nextPage();
+            long start = System.nanoTime();
+            CrawlerMetrics.recordStage(CrawlerMetrics.Stage.PARSER_IDLE, start - waitStart);
+            if (page == null) {
+                if (pageFetcher.isDrained()) {
+                    break;
                 }
-                continue; // Retry after delay
+                continue;
             }
 
-            processUrl(url);
-
-            // Apply crawl delay
-            try {
-                Thread.sleep(crawlDelay);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break; // Exit if the thread is interrupted
-            }
+            // page.url() is already normalized, parsing it again only recovers the offsets
+            processPage(URLNormalizer.parse(page.url()), page);
+            CrawlerMetrics.recordStage(CrawlerMetrics.Stage.PROCESS, System.nanoTime() - start);
         }
     }
 
@@ -0,0 +1,127 @@
+package Crawler;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.net.spi.InetAddressResolver;
+import java.net.spi.InetAddressResolverProvider;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+// Host name resolver with a TTL'd cache for the crawler. The JDK only takes a resolver from
+// META-INF/services/java.net.spi.InetAddressResolverProvider, for the whole JVM and every program on
+// the classpath, so the provider is registered there but hands every lookup straight to the builtin
+// resolver until install() is called. CrawlerHttpClient does that, so only a crawling process caches;
+// the server and the indexer resolve as before. The JDK's own cache only keeps answers for 30
+// seconds; here an answer is kept for TTL_MS and a failure for NEGATIVE_TTL_MS. prefetch resolves a
+// host in the background when it enters the frontier, so its first request does not wait for DNS.
+public class DnsCache extends InetAddressResolverProvider {
+    private static final long TTL_MS = 5 * 60 * 1000;
+    private static final long NEGATIVE_TTL_MS = 30 * 1000;
+    private static final int MAX_ENTRIES = 100000;
+    private static final int EVICTED_SIZE = MAX_ENTRIES * 3 / 4; // what an eviction sweep shrinks the cache to
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final Map<String, CachedLookup> CACHE = new ConcurrentHashMap<>();
+    // Hosts being prefetched, so a burst of URLs of one host starts a single lookup
+    private static final Map<String, Boolean> PENDING = new ConcurrentHashMap<>();
+    private static volatile boolean installed = false;
+    private static final AtomicBoolean evicting = new AtomicBoolean();
+
+    // failure is set instead of addresses when the host did not resolve
+    private record CachedLookup(InetAddress[] addresses, UnknownHostException failure, long expiresAt) {
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+
+    @Override
+    public InetAddressResolver get(Configuration configuration) {
+        InetAddressResolver builtin = configuration.builtinResolver();
+        return new InetAddressResolver() {
+            @Override
+            public Stream<InetAddress> lookupByName(String host, LookupPolicy lookupPolicy) throws UnknownHostException {
+                if (!installed) {
+                    return builtin.lookupByName(host, lookupPolicy);
+                }
+                return Arrays.stream(lookup(builtin, host, lookupPolicy));
+            }
+
+            @Override
+            public String lookupByAddress(byte[] addr) throws UnknownHostException {
+                return builtin.lookupByAddress(addr);
+            }
+        };
+    }
+
+    // Turns the cache on for this JVM; lookups made before go to the builtin resolver uncached
+    public static void install() {
+        installed = true;
+    }
+
+    @Override
+    public String name() {
+        return "MAMA_Search DNS cache";
+    }
+
+    private static InetAddress[] lookup(InetAddressResolver builtin, String host, InetAddressResolver.LookupPolicy lookupPolicy)
+            throws UnknownHostException {
+        String key = host.toLowerCase() + '/' + lookupPolicy.characteristics();
+        CachedLookup cached = CACHE.get(key);
+        if (cached == null || cached.isExpired()) {
+            if (CACHE.size() >= MAX_ENTRIES && evicting.compareAndSet(false, true)) {
+                try {
+                    evict();
+                } finally {
+                    evicting.set(false);
+                }
+            }
+            try {
+                InetAddress[] addresses = builtin.lookupByName(host, lookupPolicy).toArray(InetAddress[]::new);
+                cached = new CachedLookup(addresses, null, System.currentTimeMillis() + TTL_MS);
+            } catch (UnknownHostException e) {
+                cached = new CachedLookup(null, e, System.currentTimeMillis() + NEGATIVE_TTL_MS);
+            }
+            CACHE.put(key, cached);
+        }
+        if (cached.failure() != null) {
+            throw new UnknownHostException(cached.failure().getMessage());
+        }
+        return cached.addresses();
+    }
+
+    // Shrinks the cache to EVICTED_SIZE in one sweep, expired entries first and then any, so the scan
+    // runs once per MAX_ENTRIES - EVICTED_SIZE new hosts rather than on every miss of a full cache.
+    // Lookups racing it go on, the cache may briefly hold a few more than MAX_ENTRIES.
+    private static void evict() {
+        CACHE.values().removeIf(CachedLookup::isExpired);
+        int excess = CACHE.size() - EVICTED_SIZE;
+        Iterator<String> keys = CACHE.keySet().iterator();
+        while (excess > 0 && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            excess--;
+        }
+    }
+
+    // Resolves a host in the background, must not block. Without this provider installed it still
+    // warms the JDK's short-lived cache.
+    public static void prefetch(String host) {
+        if (host == null || host.isEmpty() || PENDING.putIfAbsent(host, Boolean.TRUE) != null) {
+            return;
+        }
+        PREFETCH_EXECUTOR.execute(() -> {
+            try {
+                InetAddress.getAllByName(host);
+            } catch (UnknownHostException e) {
+                // Cached as a failure, the fetch will fail fast
+            } finally {
+                PENDING.remove(host);
+            }
+        });
+    }
+}
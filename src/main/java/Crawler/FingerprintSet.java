@@ -0,0 +1,241 @@
+package Crawler;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Concurrent set of 64-bit fingerprints stored in an open-addressing long[] table (linear probing).
+// Slots are claimed with CAS, so concurrent adds never block each other; the read-write lock is only
+// taken exclusively while the table is doubled. Lookups read the table without locking.
+// remove() leaves a REMOVED marker in the slot so probe chains stay intact; adds never reuse such
+// slots (that could race with a second add of the same fingerprint), the next resize drops them.
+// The Bloom filter is rebuilt for the new capacity whenever the table grows, so its false positive
+// rate stays at BLOOM_FALSE_POSITIVE_RATE however far the set grows past expectedItems.
+public class FingerprintSet implements Serializable {
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long EMPTY = 0L;
+    private static final long EMPTY_REPLACEMENT = 1L; // 0 marks a free slot, so fingerprint 0 is stored as 1
+    private static final long REMOVED = 2L;
+    private static final long REMOVED_REPLACEMENT = 3L; // likewise fingerprint 2 is stored as 3
+    private static final double MAX_LOAD = 0.5;
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+
+    private final int expectedItems;
+    private final boolean useBloomFilter;
+    private transient volatile long[] table;
+    private transient AtomicLong count;
+    private transient AtomicLong removed; // REMOVED slots in the table
+    private transient ReentrantReadWriteLock resizeLock;
+    private transient volatile BloomFilter bloomFilter;
+
+    public FingerprintSet(int expectedItems, boolean useBloomFilter) {
+        this.expectedItems = expectedItems;
+        this.useBloomFilter = useBloomFilter;
+        init(expectedItems);
+    }
+
+    private void init(long capacity) {
+        int size = Integer.highestOneBit((int) Math.max(16, Math.min(1 << 30, capacity / MAX_LOAD)) - 1) << 1;
+        table = new long[size];
+        count = new AtomicLong();
+        removed = new AtomicLong();
+        resizeLock = new ReentrantReadWriteLock();
+        bloomFilter = useBloomFilter ? newBloomFilter(size) : null;
+    }
+
+    // Sized for the most fingerprints a table of tableSize holds before it is doubled
+    private BloomFilter newBloomFilter(int tableSize) {
+        return new BloomFilter(Math.max(expectedItems, (long) (tableSize * MAX_LOAD)), BLOOM_FALSE_POSITIVE_RATE);
+    }
+
+    // Adds a fingerprint, returns true if it was not in the set before (atomic check-and-add)
+    public boolean add(long fingerprint) {
+        long fp = slotValue(fingerprint);
+        while (true) {
+            long added;
+            resizeLock.readLock().lock();
+            try {
+                // Under the read lock, so a resize rebuilding the filter sees this fingerprint either
+                // in the table or not at all
+                BloomFilter filter = bloomFilter;
+                if (filter != null) {
+                    filter.put(fp);
+                }
+                long[] t = table;
+                int mask = t.length - 1;
+                int index = spread(fp) & mask;
+                added = -1;
+                for (int probes = 0; probes < t.length; probes++) {
+                    long current = (long) SLOTS.getVolatile(t, index);
+                    if (current == fp) {
+                        return false;
+                    }
+                    if (current == EMPTY) {
+                        if (SLOTS.compareAndSet(t, index, EMPTY, fp)) {
+                            added = count.incrementAndGet();
+                            break;
+                        }
+                        // Lost the race for this slot, look at it again
+                        continue;
+                    }
+                    index = (index + 1) & mask;
+                }
+            } finally {
+                resizeLock.readLock().unlock();
+            }
+
+            if (added == -1) {
+                // Table was full, grow it and retry
+                resize();
+                continue;
+            }
+            if (added + removed.get() > table.length * MAX_LOAD) {
+                resize();
+            }
+            return true;
+        }
+    }
+
+    public boolean contains(long fingerprint) {
+        long fp = slotValue(fingerprint);
+        BloomFilter filter = bloomFilter;
+        if (filter != null && !filter.mightContain(fp)) {
+            return false;
+        }
+
+        long[] t = table;
+        int mask = t.length - 1;
+        int index = spread(fp) & mask;
+        for (int probes = 0; probes < t.length; probes++) {
+            long current = (long) SLOTS.getVolatile(t, index);
+            if (current == fp) {
+                return true;
+            }
+            if (current == EMPTY) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    // Removes a fingerprint, returns true if it was in the set. The Bloom filter keeps it, it only
+    // answers "maybe" for it from then on.
+    public boolean remove(long fingerprint) {
+        long fp = slotValue(fingerprint);
+        resizeLock.readLock().lock();
+        try {
+            long[] t = table;
+            int mask = t.length - 1;
+            int index = spread(fp) & mask;
+            for (int probes = 0; probes < t.length; probes++) {
+                long current = (long) SLOTS.getVolatile(t, index);
+                if (current == fp) {
+                    if (!SLOTS.compareAndSet(t, index, fp, REMOVED)) {
+                        return false; // Removed concurrently
+                    }
+                    count.decrementAndGet();
+                    removed.incrementAndGet();
+                    return true;
+                }
+                if (current == EMPTY) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        return (int) count.get();
+    }
+
+    private static long slotValue(long fingerprint) {
+        if (fingerprint == EMPTY) {
+            return EMPTY_REPLACEMENT;
+        }
+        return fingerprint == REMOVED ? REMOVED_REPLACEMENT : fingerprint;
+    }
+
+    private void resize() {
+        resizeLock.writeLock().lock();
+        try {
+            long[] old = table;
+            // Another thread may have grown the table already
+            long used = count.get() + removed.get();
+            if (used <= old.length * MAX_LOAD && used < old.length) {
+                return;
+            }
+            long[] bigger = new long[old.length * 2];
+            int mask = bigger.length - 1;
+            for (long fp : old) {
+                if (fp == EMPTY || fp == REMOVED) {
+                    continue;
+                }
+                int index = spread(fp) & mask;
+                while (bigger[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                bigger[index] = fp;
+            }
+            if (bloomFilter != null) {
+                BloomFilter filter = newBloomFilter(bigger.length);
+                for (long fp : bigger) {
+                    if (fp != EMPTY) {
+                        filter.put(fp);
+                    }
+                }
+                bloomFilter = filter;
+            }
+            table = bigger;
+            removed.set(0);
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    private static int spread(long fp) {
+        return (int) (fp ^ (fp >>> 32));
+    }
+
+    // Only the occupied slots are written, 8 bytes per fingerprint
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        // Hold off concurrent adds so the count matches the slots written
+        resizeLock.writeLock().lock();
+        try {
+            long[] t = table;
+            int n = 0;
+            for (long fp : t) {
+                if (fp != EMPTY && fp != REMOVED) {
+                    n++;
+                }
+            }
+            out.writeInt(n);
+            for (long fp : t) {
+                if (fp != EMPTY && fp != REMOVED) {
+                    out.writeLong(fp);
+                }
+            }
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        init(Math.max(expectedItems, n));
+        for (int i = 0; i < n; i++) {
+            add(in.readLong());
+        }
+    }
+}
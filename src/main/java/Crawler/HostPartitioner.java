@@ -0,0 +1,48 @@
+package Crawler;
+
+import java.util.Arrays;
+
+// Consistent hashing of hosts onto crawler nodes. Every node is placed on a 64-bit ring at
+// VIRTUAL_NODES points and a host belongs to the first point at or after its own hash, so the
+// hosts spread evenly and adding a node only moves the hosts that land on its new points.
+// Every node builds the same ring from the same node count, no coordination needed.
+public class HostPartitioner {
+    private static final int VIRTUAL_NODES = 128;
+
+    private final long[] points; // sorted ring positions
+    private final int[] owners;  // node of each position
+    private final int nodeCount;
+
+    public HostPartitioner(int nodeCount) {
+        this.nodeCount = nodeCount;
+        long[][] ring = new long[nodeCount * VIRTUAL_NODES][];
+        for (int node = 0; node < nodeCount; node++) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring[node * VIRTUAL_NODES + i] = new long[]{URLNormalizer.getFingerprint("node-" + node + "#" + i), node};
+            }
+        }
+        Arrays.sort(ring, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[ring.length];
+        owners = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            points[i] = ring[i][0];
+            owners[i] = (int) ring[i][1];
+        }
+    }
+
+    // Node that crawls the given (normalized) host
+    public int ownerOf(String host) {
+        if (nodeCount == 1) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(points, URLNormalizer.getFingerprint(host));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+}
@@ -0,0 +1,557 @@
+package Crawler;
+
+import org.jsoup.nodes.Entities;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// Single pass over a page's HTML that pulls out what the crawler and the indexer need (title,
+// h1-h3 text, body text, links and the SimHash fingerprint) without building a DOM. Tags are
+// recognized but not matched up: text is split into blocks at block-level tags, script and style
+// contents are skipped, and headings are collected until their closing tag.
+public class HtmlExtractor {
+    private static final int CHARSET_SNIFF_LENGTH = 1024; // bytes searched for a <meta> charset, as browsers do
+    private static final int MAX_ENTITY_LENGTH = 32;
+
+    // Tags that end the current text block, so the words on both sides are not run together
+    private static final Set<String> BLOCK_TAGS = Set.of(
+            "address", "article", "aside", "blockquote", "body", "br", "caption", "center", "dd", "details", "dialog",
+            "dir", "div", "dl", "dt", "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4",
+            "h5", "h6", "head", "header", "hr", "html", "legend", "li", "main", "menu", "nav", "ol", "optgroup",
+            "option", "p", "pre", "section", "select", "summary", "table", "tbody", "td", "tfoot", "th",
+            "thead", "title", "tr", "ul");
+    // Tags whose content is not page text; textarea holds form input that may look like markup
+    private static final Set<String> SKIPPED_TAGS = Set.of("script", "style", "template", "svg", "math", "textarea");
+
+    // What a page contributes to the index. text holds the blocks of visible text in document order,
+    // headings included; h1-h3 hold the heading texts again. links are absolute but not normalized.
+    public record Content(String title, List<String> h1, List<String> h2, List<String> h3, List<String> text,
+                          List<String> links, long fingerprint, String charset) {
+    }
+
+    private final String html;
+    private String baseUrl;
+    private int pos = 0;
+
+    private final StringBuilder block = new StringBuilder();
+    private final StringBuilder heading = new StringBuilder();
+    private final StringBuilder allText = new StringBuilder(); // title and blocks, for the fingerprint
+    private boolean pendingSpace = false;
+    private boolean headingPendingSpace = false;
+    private int headingLevel = 0; // 1-3 while inside an h1-h3
+    private String title = null;
+    private final List<String> h1 = new ArrayList<>();
+    private final List<String> h2 = new ArrayList<>();
+    private final List<String> h3 = new ArrayList<>();
+    private final List<String> text = new ArrayList<>();
+    private final List<String> links = new ArrayList<>();
+
+    private HtmlExtractor(String html, String baseUrl) {
+        this.html = html;
+        this.baseUrl = baseUrl;
+    }
+
+    // Decodes the body (with the server's charset, else a BOM or <meta> charset, else UTF-8) and
+    // extracts its content; baseUrl is the final URL of the page, relative links resolve against it
+    public static Content extract(byte[] body, String charset, String baseUrl) {
+        Charset decoded = detectCharset(body, charset);
+        int offset = 0;
+        if (decoded.equals(StandardCharsets.UTF_8) && body.length >= 3
+                && (body[0] & 0xff) == 0xef && (body[1] & 0xff) == 0xbb && (body[2] & 0xff) == 0xbf) {
+            offset = 3;
+        }
+        HtmlExtractor extractor = new HtmlExtractor(new String(body, offset, body.length - offset, decoded), baseUrl);
+        extractor.run();
+        return extractor.content(decoded.name());
+    }
+
+    // Same for HTML that is already decoded
+    public static Content extract(String html, String baseUrl) {
+        HtmlExtractor extractor = new HtmlExtractor(html, baseUrl);
+        extractor.run();
+        return extractor.content(StandardCharsets.UTF_8.name());
+    }
+
+    private Content content(String charset) {
+        String pageTitle = title == null ? "" : title;
+        allText.insert(0, pageTitle + ' ');
+        return new Content(pageTitle, h1, h2, h3, text, links, SimHash.fingerprint(allText), charset);
+    }
+
+    private void run() {
+        int length = html.length();
+        while (pos < length) {
+            char c = html.charAt(pos);
+            if (c == '<' && pos + 1 < length) {
+                char next = html.charAt(pos + 1);
+                if (next == '!' || next == '?') {
+                    skipMarkup();
+                    continue;
+                }
+                if (next == '/' || isAsciiLetter(next)) {
+                    readTag();
+                    continue;
+                }
+            }
+            if (c == '&') {
+                appendText(readEntity());
+                continue;
+            }
+            appendText(c);
+            pos++;
+        }
+        endHeading();
+        endBlock();
+    }
+
+    // Comments, doctypes, CDATA and processing instructions
+    private void skipMarkup() {
+        int end;
+        if (html.startsWith("<!--", pos)) {
+            end = html.indexOf("-->", pos + 4);
+            pos = end < 0 ? html.length() : end + 3;
+        } else {
+            end = html.indexOf('>', pos + 2);
+            pos = end < 0 ? html.length() : end + 1;
+        }
+    }
+
+    private void readTag() {
+        boolean closing = html.charAt(pos + 1) == '/';
+        int i = pos + (closing ? 2 : 1);
+        int nameStart = i;
+        while (i < html.length() && !isTagNameEnd(html.charAt(i))) {
+            i++;
+        }
+        String name = html.substring(nameStart, i).toLowerCase();
+        pos = i;
+
+        String href = null;
+        // Attributes, only href matters
+        while (pos < html.length()) {
+            char c = html.charAt(pos);
+            if (c == '>') {
+                pos++;
+                break;
+            }
+            if (isWhitespace(c) || c == '/') {
+                pos++;
+                continue;
+            }
+            int attributeStart = pos;
+            while (pos < html.length() && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '='
+                    && html.charAt(pos) != '>' && !(html.charAt(pos) == '/' && pos + 1 < html.length() && html.charAt(pos + 1) == '>')) {
+                pos++;
+            }
+            boolean isHref = pos - attributeStart == 4 && html.regionMatches(true, attributeStart, "href", 0, 4);
+            if (pos == attributeStart) {
+                pos++;
+                continue;
+            }
+            skipWhitespace();
+            if (pos < html.length() && html.charAt(pos) == '=') {
+                pos++;
+                skipWhitespace();
+                String value = readAttributeValue();
+                if (isHref && !closing) {
+                    href = value;
+                }
+            }
+        }
+
+        if (closing) {
+            endTag(name);
+        } else {
+            startTag(name, href);
+        }
+    }
+
+    private String readAttributeValue() {
+        if (pos >= html.length()) {
+            return "";
+        }
+        char quote = html.charAt(pos);
+        int start;
+        int end;
+        if (quote == '"' || quote == '\'') {
+            start = pos + 1;
+            end = html.indexOf(quote, start);
+            if (end < 0) {
+                end = html.length();
+            }
+            pos = Math.min(html.length(), end + 1);
+        } else {
+            start = pos;
+            while (pos < html.length() && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '>') {
+                pos++;
+            }
+            end = pos;
+        }
+        String value = html.substring(start, end);
+        return value.indexOf('&') < 0 ? value : decodeEntities(value);
+    }
+
+    private void startTag(String name, String href) {
+        if (SKIPPED_TAGS.contains(name)) {
+            skipRawText(name);
+            return;
+        }
+        switch (name) {
+            case "a", "area" -> addLink(href);
+            case "base" -> {
+                if (href != null && !href.isBlank()) {
+                    String resolved = resolve(baseUrl, href.trim());
+                    if (resolved != null) {
+                        baseUrl = resolved;
+                    }
+                }
+            }
+            case "title" -> {
+                readTitle();
+                return;
+            }
+            default -> {
+            }
+        }
+        if (BLOCK_TAGS.contains(name)) {
+            endBlock();
+            int level = headingLevel(name);
+            if (level > 0) {
+                endHeading();
+                headingLevel = level;
+            }
+        }
+    }
+
+    private void endTag(String name) {
+        if (BLOCK_TAGS.contains(name)) {
+            if (headingLevel > 0 && headingLevel(name) > 0) {
+                endHeading();
+            }
+            endBlock();
+        }
+    }
+
+    // Title text is not markup, it runs up to </title>
+    private void readTitle() {
+        int end = indexOfClosingTag("title");
+        String raw = html.substring(pos, end);
+        pos = skipClosingTag(end);
+        if (title == null) {
+            title = collapseWhitespace(raw.indexOf('&') < 0 ? raw : decodeEntities(raw));
+        }
+    }
+
+    // Script, style and textarea bodies may contain '<', only their closing tag ends them
+    private void skipRawText(String name) {
+        pos = skipClosingTag(indexOfClosingTag(name));
+    }
+
+    private int indexOfClosingTag(String name) {
+        int i = pos;
+        while (true) {
+            i = html.indexOf("</", i);
+            if (i < 0) {
+                return html.length();
+            }
+            if (html.regionMatches(true, i + 2, name, 0, name.length())) {
+                return i;
+            }
+            i += 2;
+        }
+    }
+
+    private int skipClosingTag(int start) {
+        if (start >= html.length()) {
+            return html.length();
+        }
+        int end = html.indexOf('>', start);
+        return end < 0 ? html.length() : end + 1;
+    }
+
+    private void addLink(String href) {
+        if (href == null) {
+            return;
+        }
+        href = href.trim();
+        // Same-page anchors lead back to this page once the fragment is dropped
+        if (href.isEmpty() || href.charAt(0) == '#') {
+            return;
+        }
+        String resolved = resolve(baseUrl, href);
+        if (resolved != null) {
+            links.add(resolved);
+        }
+    }
+
+    private void appendText(char c) {
+        if (isWhitespace(c) || c == '\u00a0') {
+            pendingSpace = block.length() > 0;
+            headingPendingSpace = heading.length() > 0;
+            return;
+        }
+        if (pendingSpace) {
+            block.append(' ');
+            pendingSpace = false;
+        }
+        block.append(c);
+        if (headingLevel > 0) {
+            if (headingPendingSpace) {
+                heading.append(' ');
+                headingPendingSpace = false;
+            }
+            heading.append(c);
+        }
+    }
+
+    private void appendText(String decoded) {
+        for (int i = 0; i < decoded.length(); i++) {
+            appendText(decoded.charAt(i));
+        }
+    }
+
+    private void endBlock() {
+        if (block.length() > 0) {
+            String blockText = block.toString();
+            text.add(blockText);
+            allText.append(blockText).append(' ');
+            block.setLength(0);
+        }
+        pendingSpace = false;
+        // A block boundary inside a heading (<br>, <div>...) still separates its words there
+        headingPendingSpace = heading.length() > 0;
+    }
+
+    private void endHeading() {
+        if (headingLevel > 0 && heading.length() > 0) {
+            String headingText = heading.toString();
+            switch (headingLevel) {
+                case 1 -> h1.add(headingText);
+                case 2 -> h2.add(headingText);
+                default -> h3.add(headingText);
+            }
+        }
+        heading.setLength(0);
+        headingPendingSpace = false;
+        headingLevel = 0;
+    }
+
+    // Decodes the character reference at pos, or returns "&" if there is none
+    private String readEntity() {
+        int semicolon = entityEnd(html, pos);
+        if (semicolon > 0) {
+            String decoded = decodeEntity(html.substring(pos + 1, semicolon));
+            if (decoded != null) {
+                pos = semicolon + 1;
+                return decoded;
+            }
+        }
+        pos++;
+        return "&";
+    }
+
+    // The ';' closing a non-empty reference started by the '&' at ampersand, or -1. Only the next
+    // MAX_ENTITY_LENGTH chars are searched: a stray '&' must not scan the rest of the document.
+    private static int entityEnd(String text, int ampersand) {
+        int end = Math.min(text.length(), ampersand + MAX_ENTITY_LENGTH + 1);
+        for (int i = ampersand + 1; i < end; i++) {
+            if (text.charAt(i) == ';') {
+                return i > ampersand + 1 ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    // name is what stands between '&' and ';'
+    private static String decodeEntity(String name) {
+        if (name.charAt(0) == '#') {
+            try {
+                boolean hex = name.length() > 1 && (name.charAt(1) == 'x' || name.charAt(1) == 'X');
+                int codePoint = Integer.parseInt(name.substring(hex ? 2 : 1), hex ? 16 : 10);
+                return Character.isValidCodePoint(codePoint) && codePoint != 0 ? new String(Character.toChars(codePoint)) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isLetterOrDigit(name.charAt(i))) {
+                return null;
+            }
+        }
+        String decoded = Entities.getByName(name);
+        return decoded.isEmpty() ? null : decoded;
+    }
+
+    private static String decodeEntities(String value) {
+        StringBuilder decoded = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            int semicolon = c == '&' ? entityEnd(value, i) : -1;
+            if (semicolon > 0) {
+                String entity = decodeEntity(value.substring(i + 1, semicolon));
+                if (entity != null) {
+                    decoded.append(entity);
+                    i = semicolon + 1;
+                    continue;
+                }
+            }
+            decoded.append(c);
+            i++;
+        }
+        return decoded.toString();
+    }
+
+    private static String collapseWhitespace(String value) {
+        StringBuilder collapsed = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isWhitespace(c) || c == '\u00a0') {
+                space = collapsed.length() > 0;
+            } else {
+                if (space) {
+                    collapsed.append(' ');
+                    space = false;
+                }
+                collapsed.append(c);
+            }
+        }
+        return collapsed.toString();
+    }
+
+    // Resolves a link against the page URL (RFC 3986 reference resolution for the forms that occur
+    // in links); dot segments are left for URLNormalizer. Returns null for links without an http(s) target.
+    static String resolve(String base, String href) {
+        int colon = href.indexOf(':');
+        int firstSpecial = indexOfAny(href, "/?#");
+        if (colon > 0 && (firstSpecial < 0 || colon < firstSpecial)) {
+            // Has a scheme of its own
+            String scheme = href.substring(0, colon);
+            return scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https") ? href : null;
+        }
+        if (base == null) {
+            return null;
+        }
+        int schemeEnd = base.indexOf("://");
+        if (schemeEnd < 0) {
+            return null;
+        }
+        if (href.startsWith("//")) {
+            return base.substring(0, schemeEnd + 1) + href;
+        }
+        int authorityEnd = indexOfAny(base, "/?#", schemeEnd + 3);
+        if (authorityEnd < 0) {
+            authorityEnd = base.length();
+        }
+        String origin = base.substring(0, authorityEnd);
+        if (href.startsWith("/")) {
+            return origin + href;
+        }
+        int baseEnd = indexOfAny(base, "?#", authorityEnd);
+        String basePath = base.substring(authorityEnd, baseEnd < 0 ? base.length() : baseEnd);
+        if (href.startsWith("?")) {
+            return origin + (basePath.isEmpty() ? "/" : basePath) + href;
+        }
+        // Relative path: replace the last segment of the base path
+        int lastSlash = basePath.lastIndexOf('/');
+        return origin + (lastSlash < 0 ? "/" : basePath.substring(0, lastSlash + 1)) + href;
+    }
+
+    private static int indexOfAny(String s, String chars) {
+        return indexOfAny(s, chars, 0);
+    }
+
+    private static int indexOfAny(String s, String chars, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (chars.indexOf(s.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int headingLevel(String name) {
+        return switch (name) {
+            case "h1" -> 1;
+            case "h2" -> 2;
+            case "h3" -> 3;
+            default -> 0;
+        };
+    }
+
+    private void skipWhitespace() {
+        while (pos < html.length() && isWhitespace(html.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private static boolean isTagNameEnd(char c) {
+        return isWhitespace(c) || c == '>' || c == '/';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    // The server's charset if Java knows it, else a BOM, else a <meta> charset near the start, else UTF-8
+    private static Charset detectCharset(byte[] body, String declared) {
+        Charset charset = forName(declared);
+        if (charset != null) {
+            return charset;
+        }
+        if (body.length >= 2) {
+            int b0 = body[0] & 0xff;
+            int b1 = body[1] & 0xff;
+            if (b0 == 0xfe && b1 == 0xff) {
+                return StandardCharsets.UTF_16BE;
+            }
+            if (b0 == 0xff && b1 == 0xfe) {
+                return StandardCharsets.UTF_16LE;
+            }
+        }
+        String head = new String(body, 0, Math.min(body.length, CHARSET_SNIFF_LENGTH), StandardCharsets.ISO_8859_1).toLowerCase();
+        int meta = head.indexOf("<meta");
+        while (meta >= 0) {
+            int end = head.indexOf('>', meta);
+            if (end < 0) {
+                break;
+            }
+            int at = head.indexOf("charset=", meta);
+            if (at >= 0 && at < end) {
+                int start = at + "charset=".length();
+                while (start < end && (head.charAt(start) == '"' || head.charAt(start) == '\'' || head.charAt(start) == ' ')) {
+                    start++;
+                }
+                int stop = start;
+                while (stop < end && (Character.isLetterOrDigit(head.charAt(stop)) || "-_:.".indexOf(head.charAt(stop)) >= 0)) {
+                    stop++;
+                }
+                charset = forName(head.substring(start, stop));
+                if (charset != null) {
+                    return charset;
+                }
+            }
+            meta = head.indexOf("<meta", end);
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Charset forName(String name) {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        try {
+            return Charset.forName(name.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package Crawler;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Streams the link graph to disk while crawling instead of keeping every page's URL list in memory.
+//
+// edges.bin holds one record per crawled page: source id, the targets that already had an id
+// when the page was crawled, and the 64-bit fingerprints of the targets that did not. A background
+// thread tails the file and bulk-inserts the resolved part into url_graph; unresolved targets go
+// to pending.bin as (source id, fingerprint) pairs. When the crawl ends, one streaming pass over
+// pending.bin adds the targets that were crawled later.
+public class LinkGraph {
+    private static final String EDGES_FILE = "edges.bin";
+    private static final String PENDING_FILE = "pending.bin";
+    private static final int UPLOAD_BATCH_SIZE = 500;
+    private static final long UPLOAD_INTERVAL_MS = 1000;
+
+    private final Path edgesPath;
+    private final Path pendingPath;
+    private final VisitedSet visitedSet;
+    private final MongoDBConnection mongoDBConnection;
+    private final DataOutputStream edgesOut;
+    private final CountingOutputStream edgesCounter;
+    // Bytes of edges.bin the uploader may read, always at a record boundary
+    private volatile long committedBytes;
+    private volatile boolean closed = false;
+    private boolean edgesClosed = false;
+    private final Thread uploaderThread;
+    // Ids of pages crawled by other nodes of a multi-process crawl, consulted when the crawl ends
+    private final Map<Long, Integer> remoteIds = new ConcurrentHashMap<>();
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out, long start) {
+            super(out);
+            this.count = start;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    // A fresh crawl starts with empty files. On resume, a record torn by a crash is cut off and the
+    // whole file is uploaded again (main drops url_graph before resuming).
+    public LinkGraph(String graphDir, VisitedSet visitedSet, MongoDBConnection mongoDBConnection, boolean fresh) throws IOException {
+        Path dir = Paths.get(graphDir);
+        Files.createDirectories(dir);
+        this.edgesPath = dir.resolve(EDGES_FILE);
+        this.pendingPath = dir.resolve(PENDING_FILE);
+        this.visitedSet = visitedSet;
+        this.mongoDBConnection = mongoDBConnection;
+
+        if (fresh) {
+            Files.deleteIfExists(edgesPath);
+        }
+        Files.deleteIfExists(pendingPath);
+        long validBytes = truncateTornRecord(edgesPath);
+
+        edgesCounter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(edgesPath.toFile(), true), 64 * 1024), validBytes);
+        edgesOut = new DataOutputStream(edgesCounter);
+        committedBytes = validBytes;
+
+        uploaderThread = new Thread(this::uploadLoop, "Graph-uploader");
+        uploaderThread.setDaemon(true);
+        uploaderThread.start();
+    }
+
+    // Appends the out-links of a crawled page, resolving the targets that already have an id
+    public void addPage(int sourceId, List<NormalizedUrl> targets) {
+        List<Integer> resolved = new ArrayList<>();
+        List<Long> unresolved = new ArrayList<>();
+        for (NormalizedUrl target : targets) {
+            long fingerprint = target.fingerprint();
+            Integer targetId = visitedSet.getId(fingerprint);
+            if (targetId != null) {
+                resolved.add(targetId);
+            } else {
+                unresolved.add(fingerprint);
+            }
+        }
+
+        synchronized (this) {
+            try {
+                edgesOut.writeInt(sourceId);
+                edgesOut.writeInt(resolved.size());
+                for (int id : resolved) {
+                    edgesOut.writeInt(id);
+                }
+                edgesOut.writeInt(unresolved.size());
+                for (long fingerprint : unresolved) {
+                    edgesOut.writeLong(fingerprint);
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing link graph: " + e.getMessage());
+            }
+        }
+    }
+
+    // Makes the records written so far visible to the uploader (and durable), called about once a second
+    public synchronized void flush() {
+        if (edgesClosed) {
+            return;
+        }
+        try {
+            edgesOut.flush();
+            committedBytes = edgesCounter.count;
+        } catch (IOException e) {
+            System.err.println("Error flushing link graph: " + e.getMessage());
+        }
+    }
+
+    private void uploadLoop() {
+        long position = 0;
+        try (RandomAccessFile edgesIn = new RandomAccessFile(edgesPath.toFile(), "r");
+             DataOutputStream pendingOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pendingPath.toFile())))) {
+            while (true) {
+                boolean finished = closed;
+                long end = committedBytes;
+                if (position < end) {
+                    edgesIn.getChannel().position(position);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(edgesIn.getChannel()), 64 * 1024));
+                    LinkedHashMap<Integer, ArrayList<Integer>> batch = new LinkedHashMap<>();
+                    while (position < end) {
+                        int sourceId = in.readInt();
+                        int resolvedCount = in.readInt();
+                        ArrayList<Integer> resolved = new ArrayList<>(resolvedCount);
+                        for (int i = 0; i < resolvedCount; i++) {
+                            resolved.add(in.readInt());
+                        }
+                        int unresolvedCount = in.readInt();
+                        for (int i = 0; i < unresolvedCount; i++) {
+                            pendingOut.writeInt(sourceId);
+                            pendingOut.writeLong(in.readLong());
+                        }
+                        position += 12L + 4L * resolvedCount + 8L * unresolvedCount;
+
+                        batch.put(sourceId, resolved);
+                        if (batch.size() >= UPLOAD_BATCH_SIZE) {
+                            mongoDBConnection.insertUrlsGraphBatch(batch);
+                            batch = new LinkedHashMap<>();
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        mongoDBConnection.insertUrlsGraphBatch(batch);
+                    }
+                }
+                if (finished && position >= committedBytes) {
+                    return;
+                }
+                Thread.sleep(UPLOAD_INTERVAL_MS);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error uploading link graph: " + e.getMessage());
+        }
+    }
+
+    // Records the id another node gave a URL fingerprint
+    public void addRemoteId(long fingerprint, int id) {
+        remoteIds.put(fingerprint, id);
+    }
+
+    // Uploads what is left, then adds the edges whose targets were crawled after their source
+    // (or by another node)
+    public void close() {
+        flush();
+        closed = true;
+        try {
+            uploaderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // pending.bin is grouped by source, so one source's late edges can be collected in a single pass
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(pendingPath)))) {
+            LinkedHashMap<Integer, ArrayList<Integer>> batch = new LinkedHashMap<>();
+            while (true) {
+                int sourceId;
+                long fingerprint;
+                try {
+                    sourceId = in.readInt();
+                    fingerprint = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                Integer targetId = visitedSet.getId(fingerprint);
+                if (targetId == null) {
+                    targetId = remoteIds.get(fingerprint);
+                }
+                if (targetId == null) {
+                    continue;
+                }
+                if (!batch.containsKey(sourceId) && batch.size() >= UPLOAD_BATCH_SIZE) {
+                    mongoDBConnection.appendUrlsGraphBatch(batch);
+                    batch = new LinkedHashMap<>();
+                }
+                batch.computeIfAbsent(sourceId, id -> new ArrayList<>()).add(targetId);
+            }
+            if (!batch.isEmpty()) {
+                mongoDBConnection.appendUrlsGraphBatch(batch);
+            }
+        } catch (IOException e) {
+            System.err.println("Error resolving pending links: " + e.getMessage());
+        }
+
+        synchronized (this) {
+            try {
+                edgesClosed = true;
+                edgesOut.close();
+            } catch (IOException e) {
+                System.err.println("Error closing link graph: " + e.getMessage());
+            }
+        }
+    }
+
+    // Returns the length of the complete records in the file, cutting off a partial last record
+    private static long truncateTornRecord(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                in.readInt();
+                int resolvedCount = in.readInt();
+                in.skipNBytes(4L * resolvedCount);
+                int unresolvedCount = in.readInt();
+                in.skipNBytes(8L * unresolvedCount);
+                valid += 12L + 4L * resolvedCount + 8L * unresolvedCount;
+            }
+        } catch (EOFException e) {
+            // valid now ends at the last complete record
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(valid);
+        }
+        return valid;
+    }
+}
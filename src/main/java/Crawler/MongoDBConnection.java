@@ -1,22 +1,54 @@
 package Crawler;
 
 import DBClient.MongoDBClient;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.*;
 import org.bson.Document;
+import org.bson.types.Binary;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 public class MongoDBConnection {
     private MongoDatabase database;
-    private MongoCollection<Document> crawledData;
+    private volatile MongoCollection<Document> crawledData;
     private MongoCollection<Document> urlGraph;
     private static final String DB_NAME = "MAMA_Search";
     private static final String crawledDataName = "crawled_data";
     private static final String urlGraphName = "url_graph";
+    private static final String BODY_ENCODING = "deflate"; // compression of the stored response bodies
+
+    // Write-behind buffer for crawled pages: flushed with one unordered insertMany when BATCH_SIZE
+    // pages are waiting or the oldest has waited FLUSH_INTERVAL_MS. When the queue is full,
+    // insertCrawledPage blocks, which slows the fetchers down to the speed Mongo can write at.
+    private static final int WRITE_QUEUE_CAPACITY = 1000;
+    private static final int BATCH_SIZE = 100;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final long OFFER_TIMEOUT_MS = 50; // longest a full queue holds up close()
+    // Pages of a failed write are retried with growing delays; while the crawl runs until Mongo takes
+    // them, once closed MAX_ATTEMPTS_AFTER_CLOSE more times
+    private static final long INITIAL_RETRY_DELAY_MS = 500;
+    private static final long MAX_RETRY_DELAY_MS = 30000;
+    private static final int MAX_ATTEMPTS_AFTER_CLOSE = 3;
+    private final BlockingQueue<Document> pendingPages = new ArrayBlockingQueue<>(WRITE_QUEUE_CAPACITY);
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+    // Pages are only queued while holding it and closed is only set while holding it, so every queued
+    // page is there before the writer's final drain
+    private final Object queueLock = new Object();
 
 
     public MongoDBConnection() {
@@ -26,26 +58,285 @@ public class MongoDBConnection {
         System.out.println("Connected to database " + this.database);
         this.crawledData = database.getCollection(crawledDataName);
         this.urlGraph = database.getCollection(urlGraphName);
+
+        writerThread = new Thread(this::writeLoop, "Mongo-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
     }
 
-    public void insertCrawledPage(int id, String url, String title, String content) {
+    // Queues a page for the background writer, blocks while the queue is full. The extracted title,
+    // headings and text are what the indexer reads; the raw response body is kept deflated, with the
+    // charset needed to decode it. etag, lastModified and the content fingerprint are kept for
+    // conditional recrawls, see RecrawlScheduler.
+    public void insertCrawledPage(int id, String url, HtmlExtractor.Content content, byte[] body, String contentType,
+                                  String etag, String lastModified) {
+        Date now = new Date();
         Document document = new Document()
                 .append("id", id)
                 .append("url", url)
-                .append("title", title)
-                .append("content", content)
-                .append("crawledAt", new Date());
+                .append("title", content.title())
+                .append("h1", content.h1())
+                .append("h2", content.h2())
+                .append("h3", content.h3())
+                .append("text", content.text())
+                .append("body", new Binary(deflate(body)))
+                .append("bodyEncoding", BODY_ENCODING)
+                .append("charset", content.charset())
+                .append("contentType", contentType)
+                .append("crawledAt", now)
+                .append("etag", etag)
+                .append("lastModified", lastModified)
+                .append("fingerprint", content.fingerprint())
+                .append("revisitInterval", RecrawlScheduler.INITIAL_REVISIT_INTERVAL)
+                .append("nextVisitAt", new Date(now.getTime() + RecrawlScheduler.INITIAL_REVISIT_INTERVAL));
 
+        while (true) {
+            synchronized (queueLock) {
+                if (closed) {
+                    break;
+                }
+                try {
+                    if (pendingPages.offer(document, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        // Writer already stopped or we were interrupted, don't lose the page
         crawledData.insertOne(document);
     }
 
+    // Compresses a response body on the calling thread, so the single writer thread only does I/O
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
 
-    public void insertUrlsGraph (Integer id, ArrayList<Integer> urlsIds) {
-        Document document = new Document()
-                .append("id", id)
-                .append("extractedUrlsIds", urlsIds);
-        urlGraph.insertOne(document);
+    private void writeLoop() {
+        List<Document> batch = new ArrayList<>(BATCH_SIZE);
+        long deadline = 0;
+        while (true) {
+            long now = System.currentTimeMillis();
+            long waitTime = batch.isEmpty() ? FLUSH_INTERVAL_MS : deadline - now;
+            try {
+                Document document = waitTime > 0 ? pendingPages.poll(waitTime, TimeUnit.MILLISECONDS) : null;
+                if (document != null) {
+                    if (batch.isEmpty()) {
+                        deadline = System.currentTimeMillis() + FLUSH_INTERVAL_MS;
+                    }
+                    batch.add(document);
+                    pendingPages.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            boolean draining = closed && pendingPages.isEmpty();
+            if (batch.size() >= BATCH_SIZE || (!batch.isEmpty() && System.currentTimeMillis() >= deadline) || draining) {
+                flush(batch);
+            }
+            if (draining && batch.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private void flush(List<Document> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Document> unwritten = List.of();
+        try {
+            crawledData.insertMany(batch, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            unwritten = failedDocuments(batch, e);
+        } catch (Exception e) {
+            unwritten = new ArrayList<>(batch);
+        }
+        CrawlerMetrics.recordMongoWrite(batch.size(), System.nanoTime() - start, !unwritten.isEmpty());
+        batch.clear();
+        if (!unwritten.isEmpty()) {
+            retry(unwritten);
+        }
+    }
+
+    // These pages are already in the visited set and have their ids, dropping them would lose them for
+    // good. They are written again as upserts keyed by id, so a page that did get stored by a write
+    // reported as failed is not stored twice. Blocking the writer meanwhile fills the queue, which
+    // slows the fetchers down until Mongo is back.
+    private void retry(List<Document> pages) {
+        long delay = INITIAL_RETRY_DELAY_MS;
+        int attemptsAfterClose = 0;
+        while (true) {
+            System.err.println("Error writing " + pages.size() + " crawled pages, retrying in " + delay + " ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<WriteModel<Document>> upserts = new ArrayList<>(pages.size());
+            for (Document page : pages) {
+                upserts.add(new ReplaceOneModel<>(Filters.eq("id", page.get("id")), page, new ReplaceOptions().upsert(true)));
+            }
+            try {
+                crawledData.bulkWrite(upserts, new BulkWriteOptions().ordered(false));
+                return;
+            } catch (MongoBulkWriteException e) {
+                pages = failedDocuments(pages, e);
+                if (pages.isEmpty()) {
+                    return;
+                }
+            } catch (Exception e) {
+                // Nothing is known to be written, try them all again
+            }
+            if ((closed || Thread.currentThread().isInterrupted()) && ++attemptsAfterClose >= MAX_ATTEMPTS_AFTER_CLOSE) {
+                List<Object> ids = pages.stream().map(page -> page.get("id")).toList();
+                System.err.println("Giving up on writing crawled pages " + ids);
+                return;
+            }
+            delay = Math.min(delay * 2, MAX_RETRY_DELAY_MS);
+        }
+    }
+
+    // The documents of an unordered write that failed, except those rejected as duplicate keys: those
+    // pages are already stored
+    private static List<Document> failedDocuments(List<Document> documents, MongoBulkWriteException e) {
+        List<Document> failed = new ArrayList<>();
+        for (BulkWriteError error : e.getWriteErrors()) {
+            if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                failed.add(documents.get(error.getIndex()));
+            }
+        }
+        return failed;
+    }
+
+    // Number of pages waiting in the write-behind buffer
+    public int pendingWrites() {
+        return pendingPages.size();
+    }
+
+    // Writes every queued page and stops the writer, safe to call more than once.
+    // The writer is not interrupted so an insertMany in progress is never cut short.
+    public void close() {
+        synchronized (queueLock) {
+            closed = true;
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Pages queued just as the writer stopped
+        List<Document> rest = new ArrayList<>();
+        pendingPages.drainTo(rest);
+        flush(rest);
     }
+
+
+    // Inserts one url_graph document per source id with one unordered insertMany
+    public void insertUrlsGraphBatch(Map<Integer, ArrayList<Integer>> adjacency) {
+        List<Document> documents = new ArrayList<>(adjacency.size());
+        for (Map.Entry<Integer, ArrayList<Integer>> entry : adjacency.entrySet()) {
+            documents.add(new Document()
+                    .append("id", entry.getKey())
+                    .append("extractedUrlsIds", entry.getValue()));
+        }
+        try {
+            urlGraph.insertMany(documents, new InsertManyOptions().ordered(false));
+        } catch (Exception e) {
+            System.err.println("Error uploading URL graph batch: " + e.getMessage());
+        }
+    }
+
+    // Appends target ids to existing url_graph documents (creating them if needed) with one bulk write
+    public void appendUrlsGraphBatch(Map<Integer, ArrayList<Integer>> adjacency) {
+        List<WriteModel<Document>> updates = new ArrayList<>(adjacency.size());
+        for (Map.Entry<Integer, ArrayList<Integer>> entry : adjacency.entrySet()) {
+            updates.add(new UpdateOneModel<>(
+                    Filters.eq("id", entry.getKey()),
+                    Updates.pushEach("extractedUrlsIds", entry.getValue()),
+                    new UpdateOptions().upsert(true)));
+        }
+        try {
+            urlGraph.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        } catch (Exception e) {
+            System.err.println("Error uploading URL graph batch: " + e.getMessage());
+        }
+    }
+    // Pages whose next visit is due (or was never scheduled), earliest first, without their content
+    public List<Document> getPagesDueForRevisit(Date now) {
+        List<Document> pages = new ArrayList<>();
+        crawledData.find(Filters.or(Filters.lte("nextVisitAt", now), Filters.exists("nextVisitAt", false)))
+                .projection(Projections.include("id", "url", "etag", "lastModified", "fingerprint", "revisitInterval"))
+                .sort(Sorts.ascending("nextVisitAt"))
+                .into(pages);
+        return pages;
+    }
+
+    // Records a revisit that found the page unchanged: only the schedule and validators are touched
+    public void updateUnchangedPage(int id, String etag, String lastModified, long revisitInterval) {
+        Date now = new Date();
+        try {
+            crawledData.updateOne(Filters.eq("id", id), Updates.combine(
+                    Updates.set("etag", etag),
+                    Updates.set("lastModified", lastModified),
+                    Updates.set("checkedAt", now),
+                    Updates.set("revisitInterval", revisitInterval),
+                    Updates.set("nextVisitAt", new Date(now.getTime() + revisitInterval)),
+                    Updates.inc("checks", 1)));
+        } catch (Exception e) {
+            System.err.println("Error updating revisit schedule of page " + id + ": " + e.getMessage());
+        }
+    }
+
+    // Replaces the stored copy of a page that changed since the last visit, keeping its id. The page
+    // is flagged so that the next incremental index run indexes it again despite its old id.
+    public void updateChangedPage(int id, HtmlExtractor.Content content, byte[] body, String contentType,
+                                  String etag, String lastModified, long revisitInterval) {
+        Date now = new Date();
+        try {
+            crawledData.updateOne(Filters.eq("id", id), Updates.combine(
+                    Updates.set("title", content.title()),
+                    Updates.set("h1", content.h1()),
+                    Updates.set("h2", content.h2()),
+                    Updates.set("h3", content.h3()),
+                    Updates.set("text", content.text()),
+                    Updates.set("body", new Binary(deflate(body))),
+                    Updates.set("bodyEncoding", BODY_ENCODING),
+                    Updates.set("charset", content.charset()),
+                    Updates.set("contentType", contentType),
+                    Updates.unset("content"),
+                    Updates.set("etag", etag),
+                    Updates.set("lastModified", lastModified),
+                    Updates.set("fingerprint", content.fingerprint()),
+                    Updates.set("crawledAt", now),
+                    Updates.set("checkedAt", now),
+                    Updates.set("revisitInterval", revisitInterval),
+                    Updates.set("nextVisitAt", new Date(now.getTime() + revisitInterval)),
+                    Updates.inc("checks", 1),
+                    Updates.inc("changes", 1),
+                    Updates.set("needsIndex", true),
+                    Updates.set("changedAt", now)));
+        } catch (Exception e) {
+            System.err.println("Error updating changed page " + id + ": " + e.getMessage());
+        }
+    }
+
     public void deleteAllCrawledPages() {
         crawledData.drop();
         // Recreate the collection
@@ -53,6 +344,16 @@ public class MongoDBConnection {
         this.crawledData = database.getCollection(crawledDataName);
     }
 
+    // Removes the crawled pages with ids in [fromId, toId), one node's share of a multi-process crawl
+    public void deleteCrawledPages(int fromId, int toId) {
+        crawledData.deleteMany(Filters.and(Filters.gte("id", fromId), Filters.lt("id", toId)));
+    }
+
+    // Removes the url_graph documents of the source ids in [fromId, toId)
+    public void deleteUrlGraph(int fromId, int toId) {
+        urlGraph.deleteMany(Filters.and(Filters.gte("id", fromId), Filters.lt("id", toId)));
+    }
+
     public void deleteAllUrlGraph() {
         urlGraph.drop();
         // Recreate the collection
@@ -0,0 +1,100 @@
+package Crawler;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Finds SimHash fingerprints within maxDistance bits of one already seen. The 64 bits are split into
+// maxDistance + 1 bands; two fingerprints that differ in at most maxDistance bits must agree exactly
+// on at least one band, so only fingerprints sharing a band value are compared.
+public class NearDuplicateDetector implements Serializable {
+    private final int maxDistance;
+    private final int[] bandShift;
+    private final long[] bandMask;
+    private transient List<Map<Long, List<Long>>> bands;
+    private transient long[] fingerprints;
+    private transient int count;
+
+    public NearDuplicateDetector(int maxDistance) {
+        this.maxDistance = maxDistance;
+        int numBands = maxDistance + 1;
+        this.bandShift = new int[numBands];
+        this.bandMask = new long[numBands];
+        int shift = 0;
+        for (int i = 0; i < numBands; i++) {
+            int width = 64 / numBands + (i < 64 % numBands ? 1 : 0);
+            bandShift[i] = shift;
+            bandMask[i] = width == 64 ? -1L : (1L << width) - 1;
+            shift += width;
+        }
+        init();
+    }
+
+    private void init() {
+        bands = new ArrayList<>();
+        for (int i = 0; i < bandShift.length; i++) {
+            bands.add(new HashMap<>());
+        }
+        fingerprints = new long[1024];
+        count = 0;
+    }
+
+    // Returns true if a near-duplicate was already seen, otherwise records the fingerprint (atomic)
+    public synchronized boolean checkAndAdd(long fingerprint) {
+        for (int i = 0; i < bandShift.length; i++) {
+            List<Long> candidates = bands.get(i).get(bandKey(fingerprint, i));
+            if (candidates == null) {
+                continue;
+            }
+            for (long candidate : candidates) {
+                if (SimHash.hammingDistance(fingerprint, candidate) <= maxDistance) {
+                    return true;
+                }
+            }
+        }
+        add(fingerprint);
+        return false;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    private void add(long fingerprint) {
+        for (int i = 0; i < bandShift.length; i++) {
+            bands.get(i).computeIfAbsent(bandKey(fingerprint, i), k -> new ArrayList<>(1)).add(fingerprint);
+        }
+        if (count == fingerprints.length) {
+            fingerprints = Arrays.copyOf(fingerprints, count * 2);
+        }
+        fingerprints[count++] = fingerprint;
+    }
+
+    private long bandKey(long fingerprint, int band) {
+        return (fingerprint >>> bandShift[band]) & bandMask[band];
+    }
+
+    // Only the fingerprints are written, the band tables are rebuilt on load
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(fingerprints[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            add(in.readLong());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package Crawler;
+
+// A URL in the form URLNormalizer produces, with the offsets of its parts so callers can take the
+// host, base URL, path or fingerprint without parsing it again. Create with URLNormalizer.parse.
+public final class NormalizedUrl {
+    private final String url;
+    private final int hostStart; // first char after "://"
+    private final int hostEnd;   // end of the host, before any ":port"
+    private final int pathStart; // the '/' that starts the path
+    // Computed on first use and cached without locking, as String.hashCode does: each is a single
+    // field read once into a local, so a thread sees either nothing yet and computes the same value
+    // again, or the complete value. A String is safe to publish this way; the long is volatile since
+    // a plain long may be written in two halves. A fingerprint of 0 is simply never cached.
+    private String host;
+    private volatile long fingerprint;
+
+    NormalizedUrl(String url, int hostStart, int hostEnd, int pathStart) {
+        this.url = url;
+        this.hostStart = hostStart;
+        this.hostEnd = hostEnd;
+        this.pathStart = pathStart;
+    }
+
+    // Lower-case host without a leading "www."
+    public String host() {
+        String h = host;
+        if (h == null) {
+            h = url.substring(hostStart, hostEnd);
+            host = h;
+        }
+        return h;
+    }
+
+    // scheme://host[:port], the origin robots.txt applies to
+    public String baseUrl() {
+        return url.substring(0, pathStart);
+    }
+
+    // Path and query, starting with '/'
+    public String path() {
+        return url.substring(pathStart);
+    }
+
+    // 64-bit fingerprint used by the visited set and the link graph
+    public long fingerprint() {
+        long f = fingerprint;
+        if (f == 0) {
+            f = URLNormalizer.getFingerprint(url);
+            fingerprint = f;
+        }
+        return f;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NormalizedUrl other && url.equals(other.url);
+    }
+
+    @Override
+    public int hashCode() {
+        return url.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
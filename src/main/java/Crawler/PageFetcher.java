@@ -0,0 +1,198 @@
+package Crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Page fetches over the shared CrawlerHttpClient. In the asynchronous crawl it is also the fetch
+// stage: fetches run on virtual threads and a bounded queue hands bodies to the parser threads.
+public class PageFetcher {
+    private static final int MAX_BODY_SIZE = 1024 * 1024; // 1MB
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+    private static final long POLL_TIMEOUT_MS = 50;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    private final CrawlerHttpClient httpClient;
+    private final BlockingQueue<FetchedPage> handoff;
+    private volatile boolean closed = false;
+    private ConcurrencyController concurrencyController;
+
+    // url is the requested URL, location the final one after redirects (used to resolve relative links).
+    // etag and lastModified are the validators for a later conditional request, null if not sent.
+    // body holds the response bytes as received, charset is null when the server did not name one.
+    public record FetchedPage(String url, String location, int status, String contentType, String charset,
+                              String etag, String lastModified, byte[] body) {
+        // Extracts text, links and fingerprint from the raw body in one pass, sniffing the charset
+        // from the body if the server did not send one
+        public HtmlExtractor.Content extract() {
+            return body == null ? null : HtmlExtractor.extract(body, charset, location);
+        }
+
+        // True for a 304 answer to a conditional request, such a page has no body
+        public boolean notModified() {
+            return status == HTTP_NOT_MODIFIED;
+        }
+
+        // True for a 429 or 503 answer, the server wants the page fetched later; such a page has no body
+        public boolean isThrottled() {
+            return status == HTTP_TOO_MANY_REQUESTS || status == HTTP_SERVICE_UNAVAILABLE;
+        }
+
+        // True for a 2xx answer, 4xx/5xx error pages are returned too but are not the page asked for
+        public boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    public PageFetcher(CrawlerHttpClient httpClient, int handoffCapacity) {
+        this.httpClient = httpClient;
+        this.handoff = new ArrayBlockingQueue<>(handoffCapacity);
+    }
+
+    // Receives the outcome of every fetch, set before fetching starts
+    public void setConcurrencyController(ConcurrencyController concurrencyController) {
+        this.concurrencyController = concurrencyController;
+    }
+
+    // Fetches an HTML page, returns null on errors or non-HTML content.
+    // 429 and 503 answers are reported to the ConcurrencyController and come back as a body-less
+    // page whose isThrottled() is true, so the caller can retry the URL instead of dropping it.
+    // Like the jsoup fetch, 4xx/5xx responses are still returned.
+    // On a virtual thread the blocking send does not pin an OS thread.
+    public FetchedPage fetch(String url) {
+        return fetch(url, null, null);
+    }
+
+    // Conditional GET: sends If-None-Match / If-Modified-Since for the validators that are not null,
+    // an unchanged page comes back as a body-less FetchedPage whose notModified() is true
+    public FetchedPage fetch(String url, String etag, String lastModified) {
+        long start = System.nanoTime();
+        int status = 0;
+        ConcurrencyController.Outcome outcome = ConcurrencyController.Outcome.ERROR;
+        String retryAfter = null;
+        try {
+            List<String> headers = new ArrayList<>(4);
+            if (etag != null) {
+                headers.add("If-None-Match");
+                headers.add(etag);
+            }
+            if (lastModified != null) {
+                headers.add("If-Modified-Since");
+                headers.add(lastModified);
+            }
+            HttpResponse<InputStream> response = httpClient.get(url, REQUEST_TIMEOUT, headers.toArray(String[]::new));
+            status = response.statusCode();
+            outcome = outcomeOf(status);
+
+            try (InputStream body = response.body()) {
+                String newEtag = response.headers().firstValue("ETag").orElse(null);
+                String newLastModified = response.headers().firstValue("Last-Modified").orElse(null);
+                if (outcome == ConcurrencyController.Outcome.THROTTLED) {
+                    retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+                    return new FetchedPage(url, response.uri().toString(), status, null, null, null, null, null);
+                }
+                if (response.statusCode() == HTTP_NOT_MODIFIED) {
+                    return new FetchedPage(url, response.uri().toString(), HTTP_NOT_MODIFIED, null, null,
+                            newEtag != null ? newEtag : etag, newLastModified != null ? newLastModified : lastModified, null);
+                }
+                String contentType = response.headers().firstValue("Content-Type").orElse("");
+                if (!isHtml(contentType)) {
+                    return null;
+                }
+                byte[] bytes = body.readNBytes(MAX_BODY_SIZE);
+                return new FetchedPage(url, response.uri().toString(), response.statusCode(), contentType, extractCharset(contentType),
+                        newEtag, newLastModified, bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (HttpTimeoutException e) {
+            status = 0;
+            outcome = ConcurrencyController.Outcome.TIMEOUT;
+            return null;
+        } catch (Exception e) {
+            status = 0;
+            outcome = ConcurrencyController.Outcome.ERROR;
+            return null;
+        } finally {
+            // Latency includes the body download, a failed download counts as an error
+            long elapsed = System.nanoTime() - start;
+            CrawlerMetrics.recordFetch(status, elapsed);
+            if (concurrencyController != null) {
+                concurrencyController.record(URLNormalizer.extractDomain(url), outcome, retryAfter, elapsed);
+            }
+        }
+    }
+
+    private static ConcurrencyController.Outcome outcomeOf(int status) {
+        if (status == HTTP_TOO_MANY_REQUESTS || status == HTTP_SERVICE_UNAVAILABLE) {
+            return ConcurrencyController.Outcome.THROTTLED;
+        }
+        return status >= 500 ? ConcurrencyController.Outcome.ERROR : ConcurrencyController.Outcome.SUCCESS;
+    }
+
+    // Puts a fetched page on the handoff queue, blocking while the parsers are behind.
+    // Returns false if the fetcher is closed or the caller was interrupted.
+    public boolean handOff(FetchedPage page) {
+        try {
+            while (!closed) {
+                if (handoff.offer(page, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    // Takes the next fetched page, or null if none arrived within the poll timeout
+    public FetchedPage nextPage() {
+        try {
+            return handoff.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Number of fetched pages waiting for a parser thread
+    public int pendingPages() {
+        return handoff.size();
+    }
+
+    // True once the fetch stage is closed and every handed-off page has been taken
+    public boolean isDrained() {
+        return closed && handoff.isEmpty();
+    }
+
+    // Stops accepting new pages, called after all fetch workers have finished.
+    // The shared CrawlerHttpClient stays open.
+    public void close() {
+        closed = true;
+    }
+
+    private static boolean isHtml(String contentType) {
+        String type = contentType.toLowerCase();
+        return type.isEmpty() || type.startsWith("text/html") || type.startsWith("application/xhtml+xml");
+    }
+
+    private static String extractCharset(String contentType) {
+        for (String part : contentType.split(";")) {
+            part = part.trim();
+            if (part.toLowerCase().startsWith("charset=")) {
+                return part.substring("charset=".length()).replace("\"", "").trim();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,175 @@
+package Crawler;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Revisit mode: refetches the pages in crawled_data whose next visit is due, using conditional GETs
+// with the ETag / Last-Modified stored by the crawl. A 304, or a 200 whose SimHash matches the stored
+// one, only moves the page's schedule; the body is not parsed (304) or stored again, so the indexer
+// never sees it. A changed page is stored again under its id and flagged for the next incremental
+// index run, whose segment then replaces its old postings. Each page's revisit interval follows its observed change rate: it is halved when a
+// visit finds the page changed and doubled when it does not, within [MIN, MAX]_REVISIT_INTERVAL.
+public class RecrawlScheduler {
+    public static final long INITIAL_REVISIT_INTERVAL = 24L * 60 * 60 * 1000;
+    private static final long MIN_REVISIT_INTERVAL = 60L * 60 * 1000;
+    private static final long MAX_REVISIT_INTERVAL = 30L * 24 * 60 * 60 * 1000;
+    private static final int MAX_UNCHANGED_DISTANCE = 3; // SimHash bits a page may differ in and still count as unchanged
+
+    private final MongoDBConnection mongoDBConnection;
+    private final RobotsTxtParser robotsTxtParser;
+    private final URLFrontier frontier;
+    private final PageFetcher pageFetcher;
+    private ConcurrencyController concurrencyController;
+    // Due pages by normalized URL, removed when their URL comes out of the frontier
+    private final Map<String, RevisitEntry> duePages = new ConcurrentHashMap<>();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger changed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private record RevisitEntry(int id, String etag, String lastModified, long fingerprint, long revisitInterval) {
+    }
+
+    // The frontier only provides per-host politeness here, it is kept in its own directory
+    public RecrawlScheduler(MongoDBConnection mongoDBConnection, RobotsTxtParser robotsTxtParser, CrawlerHttpClient httpClient,
+                            int crawlDelay, String frontierDir) {
+        this.mongoDBConnection = mongoDBConnection;
+        this.robotsTxtParser = robotsTxtParser;
+        this.frontier = new URLFrontier(new VisitedSet(mongoDBConnection), crawlDelay, frontierDir);
+        this.pageFetcher = new PageFetcher(httpClient, 1);
+        robotsTxtParser.setCrawlDelayListener(frontier::setHostDelay);
+        frontier.setNewHostListener(url -> {
+            httpClient.prefetch(url);
+            robotsTxtParser.prefetch(url);
+        });
+    }
+
+    // Revisits every due page with up to maxInFlight requests at a time, returns when all are done
+    public void run(int maxInFlight) {
+        for (org.bson.Document page : mongoDBConnection.getPagesDueForRevisit(new Date())) {
+            String normalizedUrl = URLNormalizer.normalize(page.getString("url"));
+            if (normalizedUrl == null) {
+                continue;
+            }
+            duePages.put(normalizedUrl, new RevisitEntry(page.getInteger("id"), page.getString("etag"),
+                    page.getString("lastModified"), getLong(page, "fingerprint", 0),
+                    getLong(page, "revisitInterval", INITIAL_REVISIT_INTERVAL)));
+        }
+        for (String url : duePages.keySet()) {
+            frontier.addURL(url);
+        }
+        // URLs the frontier rejects would never come back out, count only what it queued
+        remaining.set((int) frontier.size());
+        System.out.println("Pages due for a revisit: " + remaining.get());
+
+        // Same adaptive limit and host backoff as the crawl, maxInFlight is the upper bound
+        concurrencyController = new ConcurrencyController(maxInFlight);
+        concurrencyController.setHostBackoffListener(frontier::backOffHost);
+        pageFetcher.setConcurrencyController(concurrencyController);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < maxInFlight; i++) {
+            workers.add(Thread.ofVirtual().name("Recrawler-" + i).start(this::revisitLoop));
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                System.err.println("Interrupted while waiting for recrawl to finish");
+                break;
+            }
+        }
+        pageFetcher.close();
+
+        System.out.println("Recrawl complete. Not modified: " + notModified.get() + ", unchanged: " + unchanged.get()
+                + ", changed: " + changed.get() + ", failed: " + failed.get());
+    }
+
+    private void revisitLoop() {
+        while (remaining.get() > 0 && !Thread.currentThread().isInterrupted()) {
+            if (!concurrencyController.acquire()) {
+                break;
+            }
+            RevisitEntry entry;
+            boolean fetched = false;
+            PageFetcher.FetchedPage page = null;
+            try {
+                String url = frontier.getNextURL();
+                if (url == null) {
+                    continue;
+                }
+                entry = duePages.remove(url);
+                if (entry == null) {
+                    frontier.releaseHost(url, false);
+                    continue;
+                }
+
+                try {
+                    if (robotsTxtParser.isAllowed(url)) {
+                        fetched = true;
+                        page = pageFetcher.fetch(url, entry.etag(), entry.lastModified());
+                    }
+                } finally {
+                    frontier.releaseHost(url, fetched);
+                    frontier.completeURL(url, List.of());
+                }
+            } finally {
+                concurrencyController.release();
+            }
+
+            if (fetched) {
+                revisit(entry, page);
+            }
+            remaining.decrementAndGet();
+        }
+    }
+
+    private void revisit(RevisitEntry entry, PageFetcher.FetchedPage page) {
+        if (page == null) {
+            // Left due, the next recrawl tries again
+            failed.incrementAndGet();
+            return;
+        }
+        long longer = Math.min(MAX_REVISIT_INTERVAL, entry.revisitInterval() * 2);
+        if (page.notModified()) {
+            notModified.incrementAndGet();
+            mongoDBConnection.updateUnchangedPage(entry.id(), page.etag(), page.lastModified(), longer);
+            return;
+        }
+
+        if (!page.isSuccess()) {
+            // An error page says nothing about the stored one: left due with its interval, the next
+            // recrawl tries again
+            failed.incrementAndGet();
+            return;
+        }
+
+        // The server ignored or does not support the validators, compare the content instead
+        HtmlExtractor.Content content = page.extract();
+        if (content == null) {
+            failed.incrementAndGet();
+            return;
+        }
+        if (SimHash.hammingDistance(content.fingerprint(), entry.fingerprint()) <= MAX_UNCHANGED_DISTANCE) {
+            unchanged.incrementAndGet();
+            mongoDBConnection.updateUnchangedPage(entry.id(), page.etag(), page.lastModified(), longer);
+            return;
+        }
+
+        changed.incrementAndGet();
+        long shorter = Math.max(MIN_REVISIT_INTERVAL, entry.revisitInterval() / 2);
+        mongoDBConnection.updateChangedPage(entry.id(), content, page.body(), page.contentType(),
+                page.etag(), page.lastModified(), shorter);
+    }
+
+    // Pages stored before revisits existed have no schedule or fingerprint yet
+    private static long getLong(org.bson.Document page, String key, long defaultValue) {
+        Object value = page.get(key);
+        return value instanceof Number number ? number.longValue() : defaultValue;
+    }
+}
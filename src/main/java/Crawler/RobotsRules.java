@@ -0,0 +1,145 @@
+package Crawler;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// The robots.txt rules that apply to our user agent on one host, compiled once when the file is parsed.
+// Plain rules are matched as path prefixes; rules with '*' or a trailing '$' are precompiled patterns.
+public class RobotsRules implements Serializable {
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(new ArrayList<>(), new ArrayList<>(), -1);
+
+    private final List<Rule> allowRules;
+    private final List<Rule> disallowRules;
+    private final long crawlDelay; // milliseconds, -1 if the host did not set one
+
+    private record Rule(String prefix, Pattern pattern) implements Serializable {
+        static Rule compile(String rule) {
+            if (rule.indexOf('*') < 0 && !rule.endsWith("$")) {
+                return new Rule(rule, null);
+            }
+
+            StringBuilder regex = new StringBuilder();
+            boolean anchored = rule.endsWith("$");
+            String body = anchored ? rule.substring(0, rule.length() - 1) : rule;
+            int start = 0;
+            for (int i = 0; i < body.length(); i++) {
+                if (body.charAt(i) == '*') {
+                    if (i > start) {
+                        regex.append(Pattern.quote(body.substring(start, i)));
+                    }
+                    regex.append(".*");
+                    start = i + 1;
+                }
+            }
+            if (start < body.length()) {
+                regex.append(Pattern.quote(body.substring(start)));
+            }
+            if (anchored) {
+                regex.append('$');
+            }
+            return new Rule(null, Pattern.compile(regex.toString()));
+        }
+
+        boolean matches(String path) {
+            if (prefix != null) {
+                return path.startsWith(prefix);
+            }
+            return pattern.matcher(path).lookingAt();
+        }
+    }
+
+    private RobotsRules(List<Rule> allowRules, List<Rule> disallowRules, long crawlDelay) {
+        this.allowRules = allowRules;
+        this.disallowRules = disallowRules;
+        this.crawlDelay = crawlDelay;
+    }
+
+    // Extracts the allow, disallow and crawl-delay directives for userAgent (or '*') from robots.txt content
+    public static RobotsRules parse(String content, String userAgent) {
+        List<Rule> disallowRules = new ArrayList<>();
+        List<Rule> allowRules = new ArrayList<>();
+        long crawlDelay = -1;
+        boolean isUserAgentRelevant = false;
+        String[] lines = content.split("\n");
+
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                // Skip empty lines and comments
+                continue;
+            }
+
+            String lower = line.toLowerCase();
+            if (lower.startsWith("user-agent:")) {
+                String agent = line.substring("user-agent:".length()).trim();
+                // Apply rules for our UserAgent or wildcard
+                isUserAgentRelevant = agent.equals("*") || agent.equalsIgnoreCase(userAgent);
+                continue;
+            }
+
+            if (isUserAgentRelevant) {
+                if (lower.startsWith("disallow:")) {
+                    String rule = line.substring("disallow:".length()).trim();
+                    if (!rule.isEmpty()) {
+                        disallowRules.add(Rule.compile(rule));
+                    }
+                } else if (lower.startsWith("allow:")) {
+                    String rule = line.substring("allow:".length()).trim();
+                    if (!rule.isEmpty()) {
+                        allowRules.add(Rule.compile(rule));
+                    }
+                } else if (lower.startsWith("crawl-delay:")) {
+                    try {
+                        double seconds = Double.parseDouble(line.substring("crawl-delay:".length()).trim());
+                        crawlDelay = Math.max(crawlDelay, (long) (seconds * 1000));
+                    } catch (NumberFormatException e) {
+                        // Ignore malformed delays
+                    }
+                }
+            }
+        }
+
+        if (allowRules.isEmpty() && disallowRules.isEmpty() && crawlDelay < 0) {
+            return ALLOW_ALL;
+        }
+        return new RobotsRules(allowRules, disallowRules, crawlDelay);
+    }
+
+    // Extracts the Sitemap URLs from robots.txt content. Sitemap lines belong to no user-agent group,
+    // they apply to every crawler wherever they appear in the file.
+    public static List<String> parseSitemaps(String content) {
+        List<String> sitemaps = new ArrayList<>();
+        for (String line : content.split("\n")) {
+            line = line.trim();
+            if (line.regionMatches(true, 0, "sitemap:", 0, "sitemap:".length())) {
+                String url = line.substring("sitemap:".length()).trim();
+                if (!url.isEmpty()) {
+                    sitemaps.add(url);
+                }
+            }
+        }
+        return sitemaps;
+    }
+
+    // Checks a URL path (starting with '/') against the rules, allow rules take precedence
+    public boolean isAllowed(String path) {
+        for (Rule rule : allowRules) {
+            if (rule.matches(path)) {
+                return true;
+            }
+        }
+        for (Rule rule : disallowRules) {
+            if (rule.matches(path)) {
+                return false;
+            }
+        }
+        // Allow access by default if no rules match
+        return true;
+    }
+
+    public long getCrawlDelay() {
+        return crawlDelay;
+    }
+}
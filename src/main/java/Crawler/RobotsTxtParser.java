@@ -1,191 +1,215 @@
 package Crawler;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.util.ArrayList;
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
 
 public class RobotsTxtParser implements Serializable {
     private final String UserAgent = "MAMA_Search";
-    // Cache to store robots.txt rules for each base URL to avoid redundant fetching
-    private final Map<String, List<List<String>>> robotsCache = new ConcurrentHashMap<>();
-    private final Map<String, Boolean> urlsCache = new ConcurrentHashMap<>();
-
-    // Fetches and caches the robots.txt content for a given URL
-    private void fetchRobotsTxt(String url) {
-
-        String baseUrl;
-        baseUrl = URLNormalizer.getBaseURL(url);
-        if (baseUrl == null || baseUrl.trim().isEmpty()) {
-            // Return null if the base URL is invalid or cannot be extracted
-            return;
+    private static final int MAX_CACHED_VERDICTS = 100000;
+    private static final long MAX_CRAWL_DELAY = 30000; // Cap on the Crawl-delay we honour, in milliseconds
+    private static final long ROBOTS_TTL = 24 * 60 * 60 * 1000; // Rules older than this are fetched again
+    private static final Duration ROBOTS_TIMEOUT = Duration.ofSeconds(5);
+    private static final int MAX_ROBOTS_SIZE = 500 * 1024; // Larger files are cut off, as RFC 9309 allows
+    // robots.txt fetches run here, off the crawler threads
+    private static final ExecutorService FETCH_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    // Cache to store compiled robots.txt rules for each base URL to avoid redundant fetching
+    private final Map<String, RobotsEntry> robotsCache = new ConcurrentHashMap<>();
+    // One in-flight fetch per base URL, every caller asking for that host waits on the same future
+    private transient Map<String, CompletableFuture<RobotsRules>> pendingFetches = new ConcurrentHashMap<>();
+    // Recently checked URLs, bounded so it does not grow with the crawl
+    private transient Map<String, Boolean> urlsCache = newVerdictCache();
+    // Receives (host, delay in ms) for hosts whose robots.txt sets a Crawl-delay
+    private transient BiConsumer<String, Long> crawlDelayListener;
+    // Receives (base URL, Sitemap URLs) for every freshly fetched robots.txt that lists sitemaps
+    private transient BiConsumer<String, List<String>> sitemapListener;
+    private transient CrawlJournal journal;
+    private transient CrawlerHttpClient httpClient;
+
+    private record RobotsEntry(RobotsRules rules, long fetchedAt) implements Serializable {
+        boolean isExpired() {
+            return System.currentTimeMillis() - fetchedAt > ROBOTS_TTL;
         }
+    }
 
-        String robotsUrl = baseUrl + "/robots.txt";
-        HttpURLConnection connection = null;
-
-        try {
-            connection = (HttpURLConnection) new java.net.URL(robotsUrl).openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(5000);
-            connection.setRequestProperty("User-Agent", UserAgent);
-
-            int responseCode = connection.getResponseCode();
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                // Cache empty list for non-200 responses to avoid repeated requests
-                robotsCache.put(baseUrl, new ArrayList<>());
-                return;
-            }
-
-            StringBuilder content = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(connection.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    content.append(line).append("\n");
-                }
+    private static Map<String, Boolean> newVerdictCache() {
+        return new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_CACHED_VERDICTS;
             }
+        };
+    }
 
-            String robotsContent = content.toString();
-
-            // Parse robots.txt content to extract allow and disallow rules
-            List<List<String>> robotsList = extractRules(robotsContent);
-
-            // Cache parsed rules, or empty list if no rules are found
-            robotsCache.put(baseUrl, robotsContent.isEmpty() ? new ArrayList<>() : robotsList);
-
-        } catch (IOException e) {
-            // Cache empty list on error to prevent repeated failed attempts
-            robotsCache.put(baseUrl, new ArrayList<>());
-
-        } finally {
-            if (connection != null) {
-                // Ensure connection is closed to prevent resource leaks
-                connection.disconnect();
-            }
+    // Hands Crawl-delay values to the scheduler, including those of hosts already cached
+    public void setCrawlDelayListener(BiConsumer<String, Long> listener) {
+        this.crawlDelayListener = listener;
+        for (Map.Entry<String, RobotsEntry> entry : robotsCache.entrySet()) {
+            notifyCrawlDelay(entry.getKey(), entry.getValue().rules());
         }
     }
 
-    // Checks if the robots.txt for a URL has already been parsed
-    private boolean isParsed(String url) {
-        String baseUrl = URLNormalizer.getBaseURL(url);
-        if (baseUrl == null || baseUrl.trim().isEmpty()) {
-            return false;
+    private void notifyCrawlDelay(String baseUrl, RobotsRules rules) {
+        if (crawlDelayListener != null && rules.getCrawlDelay() > 0) {
+            crawlDelayListener.accept(URLNormalizer.extractDomain(baseUrl), Math.min(rules.getCrawlDelay(), MAX_CRAWL_DELAY));
         }
-        return robotsCache.containsKey(baseUrl);
     }
 
-    // Determines if a URL is allowed based on robots.txt rules
-    public boolean isAllowed(String url) {
-        String normalizedUrl = URLNormalizer.normalize(url);
+    // Hands the Sitemap lines of every robots.txt fetched from now on to the sitemap reader.
+    // Rules restored from a previous run are not replayed, their sitemaps were read back then.
+    public void setSitemapListener(BiConsumer<String, List<String>> listener) {
+        this.sitemapListener = listener;
+    }
 
-        // if the url already tested return its cache
-        if (urlsCache.containsKey(normalizedUrl)) {
-            return urlsCache.get(normalizedUrl);
+    private void notifySitemaps(String baseUrl, String content) {
+        if (sitemapListener == null || content.isEmpty()) {
+            return;
         }
-
-        String baseUrl = URLNormalizer.getBaseURL(normalizedUrl);
-
-        if (!isParsed(url)) {
-            fetchRobotsTxt(url);
+        List<String> sitemaps = RobotsRules.parseSitemaps(content);
+        if (!sitemaps.isEmpty()) {
+            sitemapListener.accept(baseUrl, sitemaps);
         }
+    }
 
-        List<List<String>> robotsList = robotsCache.get(baseUrl);
+    // The client robots.txt is fetched with, must be set before the first isAllowed or prefetch
+    public void setHttpClient(CrawlerHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
 
-        if (robotsList == null || robotsList.isEmpty()) {
-            // Allow access if no rules are defined
-            urlsCache.put(normalizedUrl, true);
-            return true;
-        }
+    // Every robots.txt fetched after this call is also appended to the journal
+    public void setJournal(CrawlJournal journal) {
+        this.journal = journal;
+    }
 
-        String path = normalizedUrl.substring(baseUrl.length());
+    // Journal replay, caches rules fetched before a crash without journaling them again
+    void restoreRules(String baseUrl, String content, long fetchedAt) {
+        RobotsRules rules = content.isEmpty() ? RobotsRules.ALLOW_ALL : RobotsRules.parse(content, UserAgent);
+        robotsCache.put(baseUrl, new RobotsEntry(rules, fetchedAt));
+    }
 
-        // Check allow rules first, as they take precedence
-        for (String allowRule : robotsList.get(0)) {
-            if (matchesRule(path, allowRule)) {
-                // cache the url result
-                urlsCache.put(normalizedUrl, true);
-                return true;
-            }
+    // Starts fetching robots.txt for a URL's host in the background if it is not cached or has expired.
+    // Called when a host first enters the frontier, so its rules are usually ready before its first URL is due.
+    public void prefetch(String url) {
+        String baseUrl = URLNormalizer.getBaseURL(url);
+        if (baseUrl == null) {
+            return;
         }
-        // Check disallow rules if no allow rule matches
-        for (String disallowRule : robotsList.get(1)) {
-            if (matchesRule(path, disallowRule)) {
-                // cache the url result
-                urlsCache.put(normalizedUrl, false);
-                return false;
-            }
+        RobotsEntry entry = robotsCache.get(baseUrl);
+        if (entry == null || entry.isExpired()) {
+            load(baseUrl);
         }
+    }
 
-        // Allow access by default if no rules match
-        urlsCache.put(normalizedUrl, true);
-        return true;
+    // Returns the rules for a base URL. Only blocks when the host has never been fetched; expired
+    // rules keep being used while the refresh runs in the background.
+    private RobotsRules getRules(String baseUrl) {
+        RobotsEntry entry = robotsCache.get(baseUrl);
+        if (entry != null) {
+            if (entry.isExpired()) {
+                load(baseUrl);
+            }
+            return entry.rules();
+        }
+        return load(baseUrl).join();
     }
 
-    // Extracts allow and disallow rules from robots.txt content
-    private List<List<String>> extractRules(String content) {
-        List<String> disallowRules = new ArrayList<>();
-        List<String> allowRules = new ArrayList<>();
-        boolean isUserAgentRelevant = false;
-        String[] lines = content.split("\n");
+    // Single-flight loader: the first caller for a base URL starts the fetch, later callers get the same future
+    private CompletableFuture<RobotsRules> load(String baseUrl) {
+        CompletableFuture<RobotsRules> pending = pendingFetches.get(baseUrl);
+        if (pending != null) {
+            return pending;
+        }
+        CompletableFuture<RobotsRules> created = new CompletableFuture<>();
+        pending = pendingFetches.putIfAbsent(baseUrl, created);
+        if (pending != null) {
+            return pending;
+        }
 
-        for (String line : lines) {
-            line = line.trim();
-            if (line.isEmpty() || line.startsWith("#")) {
-                // Skip empty lines and comments
-                continue;
+        FETCH_EXECUTOR.execute(() -> {
+            String content;
+            try {
+                content = fetchRobotsTxt(baseUrl);
+            } catch (Exception e) {
+                content = "";
             }
-
-            if (line.toLowerCase().startsWith("user-agent:")) {
-                String userAgent = line.substring("user-agent:".length()).trim();
-                // Apply rules for our UserAgent or wildcard
-                isUserAgentRelevant = userAgent.equals("*") || userAgent.equalsIgnoreCase(UserAgent);
-                continue;
+            // Parse and compile the rules once for this host
+            RobotsRules rules = content.isEmpty() ? RobotsRules.ALLOW_ALL : RobotsRules.parse(content, UserAgent);
+            long fetchedAt = System.currentTimeMillis();
+
+            // Cache before removing the pending entry so no caller can miss both
+            RobotsEntry previous = robotsCache.put(baseUrl, new RobotsEntry(rules, fetchedAt));
+            if (journal != null) {
+                journal.robots(baseUrl, content, fetchedAt);
             }
-
-            if (isUserAgentRelevant) {
-                if (line.toLowerCase().startsWith("disallow:")) {
-                    String rule = line.substring("disallow:".length()).trim();
-                    if (!rule.isEmpty()) {
-                        disallowRules.add(rule);
-                    }
-                } else if (line.toLowerCase().startsWith("allow:")) {
-                    String rule = line.substring("allow:".length()).trim();
-                    if (!rule.isEmpty()) {
-                        allowRules.add(rule);
-                    }
+            if (previous != null) {
+                // Refreshed rules may change verdicts that are already cached
+                synchronized (urlsCache) {
+                    urlsCache.clear();
                 }
             }
+            pendingFetches.remove(baseUrl, created);
+            notifyCrawlDelay(baseUrl, rules);
+            created.complete(rules);
+            notifySitemaps(baseUrl, content);
+        });
+        return created;
+    }
+
+    // Fetches the robots.txt of a base URL, an empty string means everything is allowed
+    private String fetchRobotsTxt(String baseUrl) {
+        try {
+            String content = httpClient.getText(baseUrl + "/robots.txt", ROBOTS_TIMEOUT, MAX_ROBOTS_SIZE);
+            // Cache an allow-all entry for non-200 responses to avoid repeated requests
+            return content == null ? "" : content;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "";
+        } catch (IOException | IllegalArgumentException e) {
+            // Cache an allow-all entry on error to prevent repeated failed attempts
+            return "";
         }
+    }
 
-        List<List<String>> res = new ArrayList<>();
-        res.add(allowRules);
-        res.add(disallowRules);
-        return res;
+    // Determines if a URL is allowed based on robots.txt rules
+    public boolean isAllowed(String url) {
+        NormalizedUrl normalizedUrl = URLNormalizer.parse(url);
+        return normalizedUrl != null && isAllowed(normalizedUrl);
     }
 
-    // Matches a URL path against a robots.txt rule
-    private boolean matchesRule(String path, String rule) {
-        if (rule.isEmpty()) {
-            return false;
-        }
+    public boolean isAllowed(NormalizedUrl url) {
+        String normalizedUrl = url.toString();
 
-        // Convert rule to regex, escaping special characters
-        String regex = rule.replace("*", ".*");
-        regex = regex.replaceAll("([\\[\\]{}()+?^$|])", "\\\\$1");
-        regex = "^" + regex;
+        // if the url already tested return its cache
+        Boolean cached;
+        synchronized (urlsCache) {
+            cached = urlsCache.get(normalizedUrl);
+        }
+        if (cached != null) {
+            return cached;
+        }
 
-        return path.matches(regex);
+        RobotsRules rules = getRules(url.baseUrl());
+        boolean allowed = rules.isAllowed(url.path());
+        synchronized (urlsCache) {
+            urlsCache.put(normalizedUrl, allowed);
+        }
+        return allowed;
     }
 
-    public void serialize (String filePath) {
+    public boolean serialize (String filePath) {
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
             oos.writeObject(this);
+            return true;
         } catch (IOException e) {
             System.err.println("Error serializing RobotsTxtParser: " + e.getMessage());
+            return false;
         }
     }
 
@@ -198,4 +222,11 @@ public class RobotsTxtParser implements Serializable {
         }
     }
 
-}
\ No newline at end of file
+    // The verdict cache and pending fetches are not saved, recreate them after loading
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        urlsCache = newVerdictCache();
+        pendingFetches = new ConcurrentHashMap<>();
+    }
+
+}
@@ -0,0 +1,53 @@
+package Crawler;
+
+// 64-bit SimHash of a text: every word votes on each bit with its own 64-bit hash, so texts that
+// share most of their words end up with fingerprints that differ in only a few bits.
+public class SimHash {
+
+    public static long fingerprint(CharSequence text) {
+        int[] votes = new int[64];
+        long h = 0;
+        boolean inWord = false;
+
+        // Hash words char by char instead of splitting, so no substrings are allocated
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord) {
+                    h = 0xcbf29ce484222325L;
+                    inWord = true;
+                }
+                h ^= Character.toLowerCase(c);
+                h *= 0x100000001b3L;
+            } else if (inWord) {
+                inWord = false;
+                long wordHash = mix(h);
+                for (int bit = 0; bit < 64; bit++) {
+                    votes[bit] += ((wordHash >>> bit) & 1) == 1 ? 1 : -1;
+                }
+            }
+        }
+
+        long fp = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                fp |= 1L << bit;
+            }
+        }
+        return fp;
+    }
+
+    public static int hammingDistance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    // murmur3 finalizer, spreads FNV's weak low bits over the whole word
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,318 @@
+package Crawler;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.*;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+// Reads the sitemaps a host lists in its robots.txt and queues their URLs in bulk, with their
+// lastmod, so deep pages are reached without crawling the navigation that links to them.
+// Sitemaps are streamed: XML through StAX, gzipped files through a GZIPInputStream, plain text
+// sitemaps line by line, so a 50 MB sitemap never sits in memory. Sitemap indexes are followed
+// up to MAX_INDEX_DEPTH. Only URLs on the host whose robots.txt listed the sitemap are taken.
+public class SitemapFetcher {
+    private static final Duration SITEMAP_TIMEOUT = Duration.ofSeconds(30);
+    private static final long MAX_SITEMAP_SIZE = 50L * 1024 * 1024; // uncompressed bytes, the limit of the sitemap protocol
+    private static final int MAX_URLS_PER_HOST = 50000;
+    private static final int MAX_SITEMAPS_PER_HOST = 100; // sitemaps and indexes fetched for one host
+    private static final int MAX_INDEX_DEPTH = 2;
+    private static final int MAX_CONCURRENT_HOSTS = 4; // sitemaps are large, keep them from crowding out page fetches
+    private static final int BATCH_SIZE = 1000; // entries handed to the frontier at once
+    private static final ExecutorService FETCH_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        // Sitemaps come from anywhere, never resolve DTDs or external entities. Without namespaces,
+        // extension elements such as <image:loc> keep their prefix and are not mistaken for <loc>.
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    }
+
+    // A <url> of a sitemap; lastModified is in epoch milliseconds, -1 if the entry has no lastmod
+    public record Entry(String url, long lastModified) {
+    }
+
+    private record PendingSitemap(String url, int depth) {
+    }
+
+    private final CrawlerHttpClient httpClient;
+    private final URLFrontier frontier;
+    private final Semaphore hostPermits = new Semaphore(MAX_CONCURRENT_HOSTS);
+    // Sitemaps already read in this run, robots.txt refreshes and shared indexes do not read them again
+    private final Set<String> seenSitemaps = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed = false;
+
+    public SitemapFetcher(CrawlerHttpClient httpClient, URLFrontier frontier) {
+        this.httpClient = httpClient;
+        this.frontier = frontier;
+    }
+
+    // Reads the sitemaps listed in the robots.txt of baseUrl in the background, must not block
+    public void fetch(String baseUrl, List<String> sitemapUrls) {
+        String host = URLNormalizer.extractDomain(baseUrl);
+        if (host == null || closed) {
+            return;
+        }
+        FETCH_EXECUTOR.execute(() -> {
+            try {
+                hostPermits.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                readHost(baseUrl + "/robots.txt", host, sitemapUrls);
+            } finally {
+                hostPermits.release();
+            }
+        });
+    }
+
+    // Stops reading sitemaps, called before the HTTP client is closed
+    public void close() {
+        closed = true;
+    }
+
+    private void readHost(String robotsUrl, String host, List<String> sitemapUrls) {
+        ArrayDeque<PendingSitemap> pending = new ArrayDeque<>();
+        for (String sitemapUrl : sitemapUrls) {
+            pending.add(new PendingSitemap(sitemapUrl, 0));
+        }
+        int budget = MAX_URLS_PER_HOST;
+        int fetched = 0;
+        while (!pending.isEmpty() && budget > 0 && fetched < MAX_SITEMAPS_PER_HOST && !closed) {
+            PendingSitemap sitemap = pending.poll();
+            String url = HtmlExtractor.resolve(robotsUrl, sitemap.url());
+            if (url == null || !seenSitemaps.add(url)) {
+                continue;
+            }
+            fetched++;
+            List<String> children = new ArrayList<>();
+            budget -= read(url, host, budget, children);
+            if (sitemap.depth() < MAX_INDEX_DEPTH) {
+                for (String child : children) {
+                    pending.add(new PendingSitemap(child, sitemap.depth() + 1));
+                }
+            }
+        }
+    }
+
+    // Fetches one sitemap and queues its URLs, adding the sitemaps of an index to children.
+    // Returns the number of URLs queued.
+    private int read(String sitemapUrl, String host, int budget, List<String> children) {
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.get(sitemapUrl, SITEMAP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error fetching sitemap " + sitemapUrl + ": " + e.getMessage());
+            return 0;
+        }
+
+        EntrySink sink = new EntrySink(host, budget);
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                return 0;
+            }
+            BufferedInputStream in = new BufferedInputStream(decompress(new BufferedInputStream(body)));
+            if (isXml(in)) {
+                parseXml(in, sink, children);
+            } else {
+                parseText(in, sink);
+            }
+            CrawlerMetrics.sitemapRead();
+        } catch (IOException | XMLStreamException e) {
+            // Keep what was read before the error
+            System.err.println("Error reading sitemap " + sitemapUrl + ": " + e.getMessage());
+        }
+        sink.flush();
+        return sink.queued;
+    }
+
+    // <urlset> entries are queued, the <loc> of each <sitemap> in a <sitemapindex> goes to children
+    private void parseXml(InputStream in, EntrySink sink, List<String> children) throws XMLStreamException {
+        XMLStreamReader xml = XML_FACTORY.createXMLStreamReader(in);
+        try {
+            String loc = null;
+            long lastModified = -1;
+            while (xml.hasNext() && !sink.isFull() && !closed) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (xml.getLocalName()) {
+                        case "url", "sitemap" -> {
+                            loc = null;
+                            lastModified = -1;
+                        }
+                        case "loc" -> loc = xml.getElementText().trim();
+                        case "lastmod" -> lastModified = parseLastmod(xml.getElementText());
+                        default -> {
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && loc != null && !loc.isEmpty()) {
+                    switch (xml.getLocalName()) {
+                        case "url" -> sink.add(loc, lastModified);
+                        case "sitemap" -> children.add(loc);
+                        default -> {
+                        }
+                    }
+                }
+            }
+        } finally {
+            xml.close();
+        }
+    }
+
+    // A text sitemap is one URL per line
+    private void parseText(InputStream in, EntrySink sink) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null && !sink.isFull() && !closed) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                sink.add(line, -1);
+            }
+        }
+    }
+
+    // Collects the entries of one sitemap and hands them to the frontier in batches
+    private class EntrySink {
+        private final String host;
+        private final int budget;
+        private List<Entry> batch = new ArrayList<>();
+        int queued = 0;
+
+        EntrySink(String host, int budget) {
+            this.host = host;
+            this.budget = budget;
+        }
+
+        void add(String url, long lastModified) {
+            if (!host.equals(URLNormalizer.extractDomain(url))) {
+                return;
+            }
+            batch.add(new Entry(url, lastModified));
+            queued++;
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        boolean isFull() {
+            return queued >= budget;
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            frontier.addSitemapURLs(batch);
+            CrawlerMetrics.sitemapUrls(batch.size());
+            batch = new ArrayList<>();
+        }
+    }
+
+    // Unwraps gzipped sitemaps (sitemap.xml.gz), recognized by their magic number rather than the
+    // file name; the result is cut off at MAX_SITEMAP_SIZE uncompressed bytes
+    private static InputStream decompress(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        InputStream raw = first == 0x1f && second == 0x8b ? new GZIPInputStream(in) : in;
+        return new LimitedInputStream(raw, MAX_SITEMAP_SIZE);
+    }
+
+    // XML sitemaps start with '<' after an optional BOM and whitespace, text sitemaps with a URL
+    private static boolean isXml(BufferedInputStream in) throws IOException {
+        in.mark(256);
+        try {
+            for (int i = 0; i < 256; i++) {
+                int b = in.read();
+                if (b < 0) {
+                    return false;
+                }
+                if (b == '<') {
+                    return true;
+                }
+                // Skip whitespace and the UTF-8 byte order mark
+                if (b != ' ' && b != '\t' && b != '\r' && b != '\n' && b != 0xef && b != 0xbb && b != 0xbf) {
+                    return false;
+                }
+            }
+            return false;
+        } finally {
+            in.reset();
+        }
+    }
+
+    // A lastmod in W3C datetime form (YYYY, YYYY-MM, YYYY-MM-DD or a full timestamp), as epoch
+    // milliseconds; -1 if missing or invalid. Dates without a zone are taken as UTC.
+    static long parseLastmod(String value) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return switch (value.length()) {
+                case 4 -> Year.parse(value).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                case 7 -> YearMonth.parse(value).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                case 10 -> LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                default -> value.endsWith("Z") || value.lastIndexOf('+') > 0 || value.lastIndexOf('-') > 9
+                        ? OffsetDateTime.parse(value).toInstant().toEpochMilli()
+                        : LocalDateTime.parse(value).toInstant(ZoneOffset.UTC).toEpochMilli();
+            };
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    // Ends the stream after limit bytes
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
@@ -1,73 +1,637 @@
 package Crawler;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.text.Normalizer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
+// Importance-ordered frontier with per-host politeness. URLs carry OPIC cash: every URL enters with
+// INITIAL_CASH, and a crawled page hands its cash out evenly to its out-links, so URLs linked from
+// many (or from important) pages accumulate more. Among the hosts that are due, the one holding the
+// richest URL is served first, and each host serves its own URLs richest first.
 public class URLFrontier {
-    private final Queue<String> queue;
+    static final double INITIAL_CASH = 1.0;
+    // Age at which a sitemap entry's lastmod bonus has halved
+    private static final double LASTMOD_HALF_LIFE_MS = 30.0 * 24 * 60 * 60 * 1000;
+    // Per-host queues, a host is only handed to one thread at a time
+    private final Map<String, HostQueue> hostQueues = new HashMap<>();
+    // Hosts that have queued URLs but must wait for their politeness delay, ordered by ready time
+    private final PriorityQueue<HostSlot> waitingHosts = new PriorityQueue<>(Comparator.comparingLong(HostSlot::readyTime));
+    // Hosts that may be fetched now, richest first
+    private final PriorityQueue<HostSlot> dueHosts = new PriorityQueue<>(
+            Comparator.comparingDouble(HostSlot::priority).reversed().thenComparingLong(HostSlot::readyTime));
+    // Earliest time each host may be fetched again (politeness)
+    private final Map<String, Long> nextFetchTime = new HashMap<>();
+    // Per-host delays that override crawlDelay, e.g. from a robots.txt Crawl-delay
+    private final Map<String, Long> hostDelays = new HashMap<>();
+    // Hosts currently checked out by a crawler thread
+    private final Set<String> activeHosts = new HashSet<>();
+    // Cash of the URLs handed out by getNextURL, passed on to their out-links by completeURL
+    private final Map<String, Double> inFlightCash = new HashMap<>();
+    // Hosts that answered 429/503, not due again before this time
+    private final Map<String, Long> backoffUntil = new HashMap<>();
+    private final Object lock = new Object();
+    // Told about every host that gets a queue, e.g. to prefetch its robots.txt
+    private Consumer<String> newHostListener;
+    // Set in a multi-process crawl: URLs of hosts another node owns go to remoteSink, not the queue
+    private volatile Predicate<NormalizedUrl> isLocal;
+    private volatile BiConsumer<NormalizedUrl, Double> remoteSink;
+    private CrawlJournal journal;
     private final VisitedSet vs;
-    private final int maxSize = 10000;
+    private final int maxSize = 10000; // URLs kept in memory, the rest is spilled to disk
+    private final int crawlDelay; // Per-host delay in milliseconds
+    private static final long MAX_WAIT_MS = 50;
+    private int size = 0;
+    private long nextSequence = 0; // Keeps URLs with equal cash in arrival order
+    private long nextSlotVersion = 0;
 
+    // Overflow segments: append-only files with one "cash<TAB>url" line per URL, oldest first
+    private static final int SEGMENT_SIZE = 5000;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".txt";
+    private static final String HEAD_FILE = "head.txt";
+    private final Path spillDir;
+    private final ArrayDeque<Path> spilledSegments = new ArrayDeque<>();
+    // Segments already read back into memory, deleted once a snapshot of the head covers them
+    private final List<Path> consumedSegments = new ArrayList<>();
+    private BufferedWriter segmentWriter;
+    private Path segmentPath;
+    private int segmentLines = 0;
+    private int nextSegmentId = 0;
+    private long spilledCount = 0;
 
+    // A host's place in waitingHosts or dueHosts. Slots are never removed from the middle of a heap;
+    // a host that is rescheduled gets a new version and its older slots are skipped when they come up.
+    private record HostSlot(String host, double priority, long readyTime, long version) {
+    }
 
-    public URLFrontier(VisitedSet vs) {
+    private record QueuedUrl(String url, double cash, long sequence) {
+    }
 
-        queue = new LinkedList<>();
-        this.vs = vs;
+    // The queued URLs of one host. Adding cash to a queued URL pushes a new heap entry and leaves the
+    // old one behind; entries that no longer match the live map are dropped lazily.
+    private static class HostQueue {
+        private final PriorityQueue<QueuedUrl> heap = new PriorityQueue<>(
+                Comparator.comparingDouble(QueuedUrl::cash).reversed().thenComparingLong(QueuedUrl::sequence));
+        private final Map<String, QueuedUrl> live = new HashMap<>();
+        long slotVersion = -1;
+        boolean due = false;
+        double duePriority;
+
+        // Returns true if the URL was not queued yet
+        boolean add(String url, double cash, long sequence) {
+            QueuedUrl existing = live.get(url);
+            QueuedUrl entry = existing == null ? new QueuedUrl(url, cash, sequence)
+                    : new QueuedUrl(url, existing.cash() + cash, existing.sequence());
+            live.put(url, entry);
+            heap.add(entry);
+            if (heap.size() > 2 * live.size() + 16) {
+                heap.clear();
+                heap.addAll(live.values());
+            }
+            return existing == null;
+        }
+
+        boolean contains(String url) {
+            return live.containsKey(url);
+        }
+
+        QueuedUrl peek() {
+            while (!heap.isEmpty() && live.get(heap.peek().url()) != heap.peek()) {
+                heap.poll();
+            }
+            return heap.peek();
+        }
+
+        QueuedUrl poll() {
+            QueuedUrl head = peek();
+            if (head != null) {
+                heap.poll();
+                live.remove(head.url());
+            }
+            return head;
+        }
+
+        boolean isEmpty() {
+            return live.isEmpty();
+        }
+
+        Collection<QueuedUrl> entries() {
+            return live.values();
+        }
+    }
 
+    // Starts an empty frontier, removing any segments left in spillDir by a previous crawl
+    public URLFrontier(VisitedSet vs, int crawlDelay, String spillDir) {
+        this(vs, crawlDelay, spillDir, true);
     }
 
-    // Adds a URL to the queue in a thread-safe manner
+    private URLFrontier(VisitedSet vs, int crawlDelay, String spillDir, boolean clear) {
+        this.vs = vs;
+        this.crawlDelay = crawlDelay;
+        this.spillDir = Paths.get(spillDir);
+        try {
+            Files.createDirectories(this.spillDir);
+            if (clear) {
+                for (Path file : listFiles()) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error while preparing frontier directory: " + e.getMessage());
+        }
+    }
+
+    // Adds a URL with the initial cash in a thread-safe manner, e.g. a seed
     public void addURL(String url) {
-        String normalizedUrl = URLNormalizer.normalize(url);
+        NormalizedUrl normalizedUrl = URLNormalizer.parse(url);
+        if (normalizedUrl == null) {
+            return;
+        }
+        if (isLocal != null && !isLocal.test(normalizedUrl)) {
+            remoteSink.accept(normalizedUrl, INITIAL_CASH);
+            return;
+        }
+
+        synchronized (lock) {
+            push(normalizedUrl.toString(), INITIAL_CASH);
+        }
+    }
+
+    // Queues the URLs of a sitemap under a single lock. Their cash follows their lastmod: a page
+    // changed just now enters with twice the initial cash, one changed LASTMOD_HALF_LIFE_MS ago with
+    // 1.5 times, and one without lastmod with the initial cash, so recently changed pages come first.
+    public void addSitemapURLs(List<SitemapFetcher.Entry> entries) {
+        long now = System.currentTimeMillis();
+        List<String> urls = new ArrayList<>(entries.size());
+        List<Double> cash = new ArrayList<>(entries.size());
+        Predicate<NormalizedUrl> local = isLocal;
+        for (SitemapFetcher.Entry entry : entries) {
+            NormalizedUrl normalizedUrl = URLNormalizer.parse(entry.url());
+            if (normalizedUrl == null) {
+                continue;
+            }
+            double entryCash = INITIAL_CASH;
+            if (entry.lastModified() >= 0) {
+                long age = Math.max(0, now - entry.lastModified());
+                entryCash += INITIAL_CASH * Math.pow(0.5, age / LASTMOD_HALF_LIFE_MS);
+            }
+            if (local != null && !local.test(normalizedUrl)) {
+                remoteSink.accept(normalizedUrl, entryCash);
+            } else if (!vs.checkVisitedUrl(normalizedUrl)) {
+                urls.add(normalizedUrl.toString());
+                cash.add(entryCash);
+            }
+        }
+
+        synchronized (lock) {
+            for (int i = 0; i < urls.size(); i++) {
+                push(urls.get(i), cash.get(i));
+            }
+        }
+    }
+
+    // Journal replay, queues a URL with the cash it had collected when the crawl stopped
+    public void restoreURL(String url, double cash) {
+        synchronized (lock) {
+            push(url, cash);
+        }
+    }
+
+    // Queues a URL another node forwarded, with the cash its linking page passed on
+    public void addRemoteURL(String url, double cash) {
+        NormalizedUrl normalizedUrl = URLNormalizer.parse(url);
+        if (normalizedUrl == null || vs.checkVisitedUrl(normalizedUrl)) {
+            return;
+        }
+
+        synchronized (lock) {
+            push(normalizedUrl.toString(), cash);
+        }
+    }
 
-        synchronized (queue) {
-            if (queue.size() >= maxSize) {
+    // Called once a URL from getNextURL has been handled. Its cash is split evenly over all of its
+    // (normalized) out-links and the ones not visited yet are queued with their share; a page that
+    // failed or was dropped passes an empty list and its cash is discarded.
+    public void completeURL(String url, List<NormalizedUrl> outLinks) {
+        List<String> targets = new ArrayList<>(outLinks.size());
+        List<NormalizedUrl> remoteTargets = new ArrayList<>();
+        Predicate<NormalizedUrl> local = isLocal;
+        for (NormalizedUrl target : outLinks) {
+            if (local != null && !local.test(target)) {
+                // The owning node checks its own visited set
+                remoteTargets.add(target);
+            } else if (!vs.checkVisitedUrl(target)) {
+                targets.add(target.toString());
+            }
+        }
+
+        double share;
+        synchronized (lock) {
+            Double cash = inFlightCash.remove(url);
+            if (targets.isEmpty() && remoteTargets.isEmpty()) {
                 return;
             }
-            queue.add(normalizedUrl);
+            share = (cash == null ? INITIAL_CASH : cash) / outLinks.size();
+            for (String target : targets) {
+                push(target, share);
+            }
+        }
+        for (NormalizedUrl target : remoteTargets) {
+            remoteSink.accept(target, share);
+        }
+    }
+
+    // Puts a URL from getNextURL back with the cash it was taken out with, after the server asked us
+    // to retry it later. Call it once the host is released: the host's backoff then keeps the URL
+    // waiting until the server's delay has passed.
+    public void retryURL(String url) {
+        synchronized (lock) {
+            Double cash = inFlightCash.remove(url);
+            push(url, cash == null ? INITIAL_CASH : cash);
+        }
+    }
+
+    // Adds cash to a URL that is already queued in memory, otherwise queues it in memory or on disk
+    // once the in-memory head is full. Must be called while holding lock.
+    private void push(String normalizedUrl, double cash) {
+        HostQueue queue = hostQueues.get(URLNormalizer.extractDomain(normalizedUrl));
+        if (queue != null && queue.contains(normalizedUrl)) {
+            enqueue(normalizedUrl, cash);
+            if (journal != null) {
+                journal.frontierCash(normalizedUrl, cash);
+            }
+            return;
+        }
+        // Once anything is on disk, new URLs queue behind it so older URLs are not starved
+        if (size >= maxSize || spilledCount > 0) {
+            spill(normalizedUrl, cash);
+        } else {
+            enqueue(normalizedUrl, cash);
+        }
+        if (journal != null) {
+            journal.frontierPush(normalizedUrl, cash);
+        }
+    }
+
+    // Every push and pop made after this call is also appended to the journal
+    public void setJournal(CrawlJournal journal) {
+        synchronized (lock) {
+            this.journal = journal;
         }
     }
 
-    // Checks if the queue is empty
+    // Checks if the frontier is empty
     public boolean isEmpty() {
-        return queue.isEmpty();
+        synchronized (lock) {
+            return size == 0 && spilledCount == 0;
+        }
     }
 
-    // Returns the size of the queue
-    public int size() {
-        return queue.size();
+    // Returns the number of queued URLs, in memory and on disk
+    public long size() {
+        synchronized (lock) {
+            return size + spilledCount;
+        }
+    }
+
+    // Returns the number of hosts that currently have queued URLs in memory
+    public int hostCount() {
+        synchronized (lock) {
+            return hostQueues.size();
+        }
+    }
+
+    // Returns the hosts with the most URLs queued in memory, largest first, at most limit of them
+    public List<Map.Entry<String, Integer>> largestHostQueues(int limit) {
+        PriorityQueue<Map.Entry<String, Integer>> largest = new PriorityQueue<>(Map.Entry.comparingByValue());
+        synchronized (lock) {
+            for (Map.Entry<String, HostQueue> entry : hostQueues.entrySet()) {
+                largest.add(Map.entry(entry.getKey(), entry.getValue().entries().size()));
+                if (largest.size() > limit) {
+                    largest.poll();
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> result = new ArrayList<>(largest);
+        result.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        return result;
     }
 
-    // Retrieves and removes the next URL from the queue in a thread-safe manner
+    // Retrieves the richest URL of the richest host that is due, waiting briefly if none is.
+    // The host stays checked out until releaseHost is called for the returned URL.
     public String getNextURL() {
-        synchronized (queue) {
-            return queue.poll();
+        synchronized (lock) {
+            long deadline = System.currentTimeMillis() + MAX_WAIT_MS;
+            while (true) {
+                refillIfLow();
+
+                long now = System.currentTimeMillis();
+                // Hosts whose delay has passed compete on the cash of their best URL
+                while (!waitingHosts.isEmpty() && waitingHosts.peek().readyTime() <= now) {
+                    HostSlot slot = waitingHosts.poll();
+                    HostQueue queue = hostQueues.get(slot.host());
+                    if (queue != null && queue.slotVersion == slot.version()) {
+                        queue.due = true;
+                        queue.duePriority = queue.peek().cash();
+                        dueHosts.add(new HostSlot(slot.host(), queue.duePriority, slot.readyTime(), slot.version()));
+                    }
+                }
+
+                while (!dueHosts.isEmpty()) {
+                    HostSlot slot = dueHosts.poll();
+                    HostQueue queue = hostQueues.get(slot.host());
+                    if (queue == null || queue.slotVersion != slot.version()) {
+                        continue;
+                    }
+                    QueuedUrl next = queue.poll();
+                    size--;
+                    if (queue.isEmpty()) {
+                        hostQueues.remove(slot.host());
+                    }
+                    queue.slotVersion = -1;
+                    queue.due = false;
+                    activeHosts.add(slot.host());
+                    inFlightCash.put(next.url(), next.cash());
+                    if (journal != null) {
+                        journal.frontierPop(next.url());
+                    }
+                    return next.url();
+                }
+                if (now >= deadline) {
+                    return null;
+                }
+
+                long waitTime = deadline - now;
+                if (!waitingHosts.isEmpty()) {
+                    waitTime = Math.min(waitTime, waitingHosts.peek().readyTime() - now);
+                }
+                try {
+                    lock.wait(Math.max(1, waitTime));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
         }
     }
 
-    // Saves the current state of the queue (to be implemented)
-    public void serialize(String filePath) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            oos.writeObject(queue);
-            oos.flush();
-        } catch (Exception e) {
-            System.err.println("Error while saving state: " + e.getMessage());
-            e.printStackTrace();
+    // Returns the host of a URL obtained from getNextURL to the schedule.
+    // If a request was actually sent, the host is not due again before crawlDelay has passed.
+    public void releaseHost(String url, boolean fetched) {
+        String host = URLNormalizer.extractDomain(url);
+
+        synchronized (lock) {
+            if (!fetched) {
+                // Skipped before fetching, completeURL will not be called for it
+                inFlightCash.remove(url);
+            }
+            if (!activeHosts.remove(host)) {
+                return;
+            }
+            long readyTime = nextFetchTime.getOrDefault(host, 0L);
+            if (fetched) {
+                readyTime = System.currentTimeMillis() + Math.max(crawlDelay, hostDelays.getOrDefault(host, 0L));
+                Long throttledUntil = backoffUntil.remove(host);
+                if (throttledUntil != null) {
+                    readyTime = Math.max(readyTime, throttledUntil);
+                }
+                nextFetchTime.put(host, readyTime);
+            }
+
+            HostQueue queue = hostQueues.get(host);
+            if (queue != null && !queue.isEmpty()) {
+                schedule(host, queue, readyTime);
+            }
+        }
+    }
+
+    // Sets a host-specific delay between requests, only ever raises the default crawlDelay
+    public void setHostDelay(String host, long delay) {
+        synchronized (lock) {
+            hostDelays.put(host, delay);
+        }
+    }
+
+    // Keeps a host that is throttling us out of the schedule for delay milliseconds, called during
+    // the fetch, before the host is released
+    public void backOffHost(String host, long delay) {
+        synchronized (lock) {
+            backoffUntil.merge(host, System.currentTimeMillis() + delay, Math::max);
+        }
+    }
+
+    // Sends URLs of hosts isLocal rejects to remoteSink instead of queueing them, set before crawling
+    public void setPartition(Predicate<NormalizedUrl> isLocal, BiConsumer<NormalizedUrl, Double> remoteSink) {
+        this.remoteSink = remoteSink;
+        this.isLocal = isLocal;
+    }
+
+    // Registers a callback that receives the first URL of each host entering the frontier, must not block
+    public void setNewHostListener(Consumer<String> listener) {
+        synchronized (lock) {
+            this.newHostListener = listener;
+        }
+    }
+
+    // Puts a host that is not checked out into waitingHosts, must be called while holding lock
+    private void schedule(String host, HostQueue queue, long readyTime) {
+        queue.slotVersion = nextSlotVersion++;
+        queue.due = false;
+        waitingHosts.add(new HostSlot(host, 0, readyTime, queue.slotVersion));
+        compactSlots();
+        lock.notifyAll();
+    }
+
+    // Drops outdated slots once they outnumber the hosts, must be called while holding lock
+    private void compactSlots() {
+        if (waitingHosts.size() + dueHosts.size() > 2 * hostQueues.size() + 64) {
+            waitingHosts.removeIf(this::isStale);
+            dueHosts.removeIf(this::isStale);
+        }
+    }
+
+    private boolean isStale(HostSlot slot) {
+        HostQueue queue = hostQueues.get(slot.host());
+        return queue == null || queue.slotVersion != slot.version();
+    }
+
+    // Must be called while holding lock
+    private void enqueue(String normalizedUrl, double cash) {
+        String host = URLNormalizer.extractDomain(normalizedUrl);
+        HostQueue queue = hostQueues.get(host);
+        if (queue == null) {
+            queue = new HostQueue();
+            hostQueues.put(host, queue);
+            if (newHostListener != null) {
+                newHostListener.accept(normalizedUrl);
+            }
+        }
+        boolean wasEmpty = queue.isEmpty();
+        if (queue.add(normalizedUrl, cash, nextSequence++)) {
+            size++;
+        }
+        if (activeHosts.contains(host)) {
+            return;
+        }
+
+        if (wasEmpty) {
+            // A host becomes schedulable when its queue goes from empty to non-empty
+            schedule(host, queue, nextFetchTime.getOrDefault(host, 0L));
+        } else if (queue.due && queue.peek().cash() > queue.duePriority) {
+            // A due host whose best URL got richer moves up in dueHosts
+            queue.slotVersion = nextSlotVersion++;
+            queue.duePriority = queue.peek().cash();
+            dueHosts.add(new HostSlot(host, queue.duePriority, nextFetchTime.getOrDefault(host, 0L), queue.slotVersion));
+            compactSlots();
+        }
+    }
+
+    // Appends a URL to the current segment file, must be called while holding lock
+    private void spill(String normalizedUrl, double cash) {
+        try {
+            if (segmentWriter == null) {
+                segmentPath = spillDir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+                segmentWriter = Files.newBufferedWriter(segmentPath, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.APPEND);
+            }
+            writeLine(segmentWriter, normalizedUrl, cash);
+            segmentLines++;
+            spilledCount++;
+            if (segmentLines >= SEGMENT_SIZE) {
+                closeSegment();
+            }
+        } catch (IOException e) {
+            System.err.println("Error while spilling URL to disk: " + e.getMessage());
+        }
+    }
+
+    private static void writeLine(BufferedWriter writer, String url, double cash) throws IOException {
+        writer.write(Double.toString(cash));
+        writer.write('\t');
+        writer.write(url);
+        writer.newLine();
+    }
+
+    // Reads back a line written by writeLine; plain URL lines from older files get the initial cash.
+    // Must be called while holding lock.
+    private void enqueueLine(String line) {
+        int tab = line.indexOf('\t');
+        if (tab < 0) {
+            enqueue(line, INITIAL_CASH);
+            return;
+        }
+        double cash;
+        try {
+            cash = Double.parseDouble(line.substring(0, tab));
+        } catch (NumberFormatException e) {
+            cash = INITIAL_CASH;
+        }
+        enqueue(line.substring(tab + 1), cash);
+    }
+
+    // Closes the segment being written so it can be read back, must be called while holding lock
+    private void closeSegment() throws IOException {
+        if (segmentWriter == null) {
+            return;
+        }
+        segmentWriter.close();
+        spilledSegments.add(segmentPath);
+        segmentWriter = null;
+        segmentLines = 0;
+    }
+
+    // Moves the oldest segment back into memory once the head has drained to half,
+    // must be called while holding lock
+    private void refillIfLow() {
+        if (spilledCount == 0 || size > maxSize / 2) {
+            return;
+        }
+        try {
+            if (spilledSegments.isEmpty()) {
+                closeSegment();
+            }
+            Path segment = spilledSegments.poll();
+            if (segment == null) {
+                return;
+            }
+            List<String> lines = Files.readAllLines(segment, StandardCharsets.UTF_8);
+            consumedSegments.add(segment);
+            spilledCount -= lines.size();
+            for (String line : lines) {
+                enqueueLine(line);
+            }
+        } catch (IOException e) {
+            System.err.println("Error while refilling frontier from disk: " + e.getMessage());
+        }
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> files = Files.list(spillDir)) {
+            return files.sorted().toList();
         }
     }
 
-    // Loads the saved state of the queue (to be implemented)
-    public static URLFrontier deserialize(String filePath, VisitedSet vs) {
-       try (FileInputStream fis = new FileInputStream(filePath);
-            ObjectInputStream ois = new ObjectInputStream(fis)) {
-            Queue<String> queue = (Queue<String>) ois.readObject();
-            URLFrontier frontier = new URLFrontier(vs);
-            frontier.queue.addAll(queue);
+    // Saves the in-memory head next to the overflow segments, which are already on disk
+    public boolean serialize() {
+        synchronized (lock) {
+            Path tmp = spillDir.resolve(HEAD_FILE + ".tmp");
+            try {
+                closeSegment();
+                try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                    for (HostQueue hostQueue : hostQueues.values()) {
+                        for (QueuedUrl queued : hostQueue.entries()) {
+                            writeLine(writer, queued.url(), queued.cash());
+                        }
+                    }
+                }
+                Files.move(tmp, spillDir.resolve(HEAD_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                // The head now holds what was read from these, they are no longer needed after a crash
+                for (Path segment : consumedSegments) {
+                    Files.deleteIfExists(segment);
+                }
+                consumedSegments.clear();
+                return true;
+            } catch (IOException e) {
+                System.err.println("Error while saving state: " + e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    // Loads the saved head into memory and picks up the overflow segments where they are
+    public static URLFrontier deserialize(String spillDir, VisitedSet vs, int crawlDelay) {
+        try {
+            URLFrontier frontier = new URLFrontier(vs, crawlDelay, spillDir, false);
+            Path headFile = frontier.spillDir.resolve(HEAD_FILE);
+            if (!Files.exists(headFile)) {
+                return null;
+            }
+
+            synchronized (frontier.lock) {
+                for (Path file : frontier.listFiles()) {
+                    String name = file.getFileName().toString();
+                    if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                        continue;
+                    }
+                    try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                        frontier.spilledCount += lines.count();
+                    }
+                    frontier.spilledSegments.add(file);
+                    int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    frontier.nextSegmentId = Math.max(frontier.nextSegmentId, id + 1);
+                }
+                for (String line : Files.readAllLines(headFile, StandardCharsets.UTF_8)) {
+                    frontier.enqueueLine(line);
+                }
+            }
             return frontier;
         } catch (Exception e) {
             System.err.println("Error while loading state: " + e.getMessage());
@@ -75,4 +639,4 @@ public class URLFrontier {
         }
         return null;
     }
-}
\ No newline at end of file
+}
@@ -1,141 +1,312 @@
 package Crawler;
 
-import java.math.BigInteger;
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.*;
-import java.security.*;
+import java.util.Arrays;
 import org.jsoup.nodes.Document;
 
 public class URLNormalizer {
+    private static final int MAX_PORT = 65535;
 
     // Normalizes a given URL by standardizing its components
     public static String normalize(String url) {
-        try {
-            if (url == null || url.trim().isEmpty()) {
-                return null;
-            }
+        NormalizedUrl normalized = parse(url);
+        return normalized == null ? null : normalized.toString();
+    }
 
-            URI uri = new URI(url).normalize();
+    // Single-pass normalizer. Lower-cases scheme and host, drops "www.", userinfo, default ports,
+    // fragments, dot segments, one trailing slash, empty/sessionid/utm_ query parameters, and sorts
+    // the remaining parameters. Percent-escapes are kept as they are. Returns null for anything that
+    // is not a valid absolute http(s) URL. An input that is already normalized is returned as the
+    // same String, so normalizing again costs one scan and no copy.
+    public static NormalizedUrl parse(String url) {
+        if (url == null) {
+            return null;
+        }
+        int len = url.length();
+        int pos;
+        String scheme;
+        if (url.regionMatches(true, 0, "http://", 0, 7)) {
+            scheme = "http";
+            pos = 7;
+        } else if (url.regionMatches(true, 0, "https://", 0, 8)) {
+            scheme = "https";
+            pos = 8;
+        } else {
+            return null;
+        }
+
+        // Authority ends at the path, query or fragment
+        int authorityEnd = pos;
+        while (authorityEnd < len) {
+            char c = url.charAt(authorityEnd);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            authorityEnd++;
+        }
+        int at = url.lastIndexOf('@', authorityEnd - 1);
+        int hostStart = at >= pos ? at + 1 : pos;
 
-            String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase() : null;
-            if (scheme == null || (!scheme.equals("http") && !scheme.equals("https"))) {
+        // Host, with an optional bracketed IPv6 literal, then an optional port
+        int hostEnd;
+        if (hostStart < authorityEnd && url.charAt(hostStart) == '[') {
+            hostEnd = url.indexOf(']', hostStart);
+            if (hostEnd < 0 || hostEnd >= authorityEnd) {
+                return null;
+            }
+            hostEnd++;
+        } else {
+            hostEnd = hostStart;
+            while (hostEnd < authorityEnd && url.charAt(hostEnd) != ':') {
+                hostEnd++;
+            }
+        }
+        int port = -1;
+        if (hostEnd < authorityEnd) {
+            if (url.charAt(hostEnd) != ':') {
                 return null;
             }
+            if (hostEnd + 1 < authorityEnd) {
+                port = 0;
+                for (int i = hostEnd + 1; i < authorityEnd; i++) {
+                    char c = url.charAt(i);
+                    if (c < '0' || c > '9' || port > MAX_PORT) {
+                        return null;
+                    }
+                    port = port * 10 + (c - '0');
+                }
+                if (port > MAX_PORT) {
+                    return null;
+                }
+            }
+        }
+        if ((scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443)) {
+            port = -1;
+        }
+        if (hostEnd - hostStart > 4 && url.regionMatches(true, hostStart, "www.", 0, 4)) {
+            hostStart += 4;
+        }
+        if (hostStart >= hostEnd) {
+            return null;
+        }
 
-            String host = uri.getHost() != null ? uri.getHost().toLowerCase() : null;
-            if (host == null) {
+        StringBuilder sb = new StringBuilder(len);
+        sb.append(scheme).append("://");
+        int outHostStart = sb.length();
+        boolean ipv6 = url.charAt(hostStart) == '[';
+        for (int i = hostStart; i < hostEnd; i++) {
+            char c = url.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            } else if (!isHostChar(c, ipv6)) {
                 return null;
             }
-            if (host.startsWith("www.")) {
-                host = host.substring(4);
+            sb.append(c);
+        }
+        int outHostEnd = sb.length();
+        if (port != -1) {
+            sb.append(':').append(port);
+        }
+
+        // Path, resolving "." and ".." segments as they are copied
+        int outPathStart = sb.length();
+        int pathEnd = authorityEnd;
+        while (pathEnd < len) {
+            char c = url.charAt(pathEnd);
+            if (c == '?' || c == '#') {
+                break;
+            }
+            pathEnd++;
+        }
+        int segmentStart = authorityEnd;
+        while (segmentStart < pathEnd) {
+            int segmentEnd = segmentStart + 1;
+            while (segmentEnd < pathEnd && url.charAt(segmentEnd) != '/') {
+                segmentEnd++;
+            }
+            int segmentLength = segmentEnd - segmentStart - 1;
+            if (segmentLength == 1 && url.charAt(segmentStart + 1) == '.') {
+                // "." is dropped
+            } else if (segmentLength == 2 && url.charAt(segmentStart + 1) == '.' && url.charAt(segmentStart + 2) == '.') {
+                int previous = sb.lastIndexOf("/");
+                sb.setLength(Math.max(previous, outPathStart));
+            } else {
+                if (!isValidRange(url, segmentStart + 1, segmentEnd, false)) {
+                    return null;
+                }
+                sb.append('/').append(url, segmentStart + 1, segmentEnd);
             }
+            segmentStart = segmentEnd;
+        }
+        if (sb.length() == outPathStart) {
+            sb.append('/');
+        } else if (sb.length() - outPathStart > 1 && sb.charAt(sb.length() - 1) == '/') {
+            sb.setLength(sb.length() - 1);
+        }
 
-            String path = uri.getPath();
-            if (path == null || path.trim().isEmpty()) {
-                path = "/";
+        if (pathEnd < len && url.charAt(pathEnd) == '?') {
+            int queryEnd = url.indexOf('#', pathEnd);
+            if (queryEnd < 0) {
+                queryEnd = len;
             }
-            if (path.endsWith("/") && path.length() > 1) {
-                path = path.substring(0, path.length() - 1);
+            if (!isValidRange(url, pathEnd + 1, queryEnd, true)) {
+                return null;
             }
+            appendQuery(sb, url, pathEnd + 1, queryEnd);
+        }
+
+        String normalized = url.contentEquals(sb) ? url : sb.toString();
+        return new NormalizedUrl(normalized, outHostStart, outHostEnd, outPathStart);
+    }
 
-            int port = uri.getPort();
-            if (port != -1) {
-                if ((scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443)) {
-                    port = -1;
+    // Appends "?" and the kept parameters of url[start, end) in sorted order, nothing if none are kept
+    private static void appendQuery(StringBuilder sb, String url, int start, int end) {
+        int[] bounds = new int[8]; // start and end of each kept parameter
+        int count = 0;
+        boolean sorted = true;
+        int paramStart = start;
+        while (paramStart <= end) {
+            int paramEnd = url.indexOf('&', paramStart);
+            if (paramEnd < 0 || paramEnd > end) {
+                paramEnd = end;
+            }
+            if (paramEnd > paramStart && !url.startsWith("sessionid=", paramStart) && !url.startsWith("utm_", paramStart)) {
+                if (2 * count + 2 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
                 }
+                bounds[2 * count] = paramStart;
+                bounds[2 * count + 1] = paramEnd;
+                if (count > 0 && compareRanges(url, bounds[2 * count - 2], bounds[2 * count - 1], paramStart, paramEnd) > 0) {
+                    sorted = false;
+                }
+                count++;
             }
+            paramStart = paramEnd + 1;
+        }
+        if (count == 0) {
+            return;
+        }
 
-            String query = uri.getQuery();
-            String normalizedQuery = null;
-
-            if (query != null && !query.isEmpty()) {
-                String[] params = query.split("&");
-                params = Arrays.stream(params)
-                        .filter(param -> !param.isEmpty() && !param.startsWith("sessionid=") && !param.startsWith("utm_"))
-                        .sorted()
-                        .toArray(String[]::new);
-                if (params.length > 0) {
-                    normalizedQuery = String.join("&", params);
+        if (!sorted) {
+            // Insertion sort, queries rarely have more than a handful of parameters
+            for (int i = 1; i < count; i++) {
+                int s = bounds[2 * i];
+                int e = bounds[2 * i + 1];
+                int j = i - 1;
+                while (j >= 0 && compareRanges(url, bounds[2 * j], bounds[2 * j + 1], s, e) > 0) {
+                    bounds[2 * j + 2] = bounds[2 * j];
+                    bounds[2 * j + 3] = bounds[2 * j + 1];
+                    j--;
                 }
+                bounds[2 * j + 2] = s;
+                bounds[2 * j + 3] = e;
             }
+        }
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? '?' : '&').append(url, bounds[2 * i], bounds[2 * i + 1]);
+        }
+    }
 
-            return scheme + "://" + host + (port == -1 ? "" : ":" + port) + path + (normalizedQuery == null ? "" : "?" + normalizedQuery);
-        } catch (URISyntaxException e) {
-            return null;
-        } catch (Exception e) {
-            return null;
+    // String.compareTo on two ranges of the same string
+    private static int compareRanges(String s, int aStart, int aEnd, int bStart, int bEnd) {
+        int aLength = aEnd - aStart;
+        int bLength = bEnd - bStart;
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            char a = s.charAt(aStart + i);
+            char b = s.charAt(bStart + i);
+            if (a != b) {
+                return a - b;
+            }
         }
+        return aLength - bLength;
     }
 
-    // Extracts the base URL from a given URL
-    public static String getBaseURL(String url) {
-        try {
-            String normalizedUrl = normalize(url);
-            if (normalizedUrl == null) {
-                return null;
+    private static boolean isHostChar(char c, boolean ipv6) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '.'
+                || (ipv6 && (c == '[' || c == ']' || c == ':'));
+    }
+
+    // Rejects what java.net.URI rejects in a path segment or query: spaces, controls, unsafe
+    // punctuation and malformed percent-escapes. Brackets are only allowed in the query.
+    private static boolean isValidRange(String s, int start, int end, boolean query) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c <= ' ' || c == 0x7f || c == '"' || c == '<' || c == '>' || c == '\\' || c == '^'
+                        || c == '`' || c == '{' || c == '|' || c == '}') {
+                    return false;
+                }
+                if (!query && (c == '[' || c == ']')) {
+                    return false;
+                }
+                if (c == '%') {
+                    if (i + 2 >= end || !isHex(s.charAt(i + 1)) || !isHex(s.charAt(i + 2))) {
+                        return false;
+                    }
+                    i += 2;
+                }
+            } else if (Character.isISOControl(c) || Character.isSpaceChar(c)) {
+                return false;
             }
-            URI uri = new URI(normalizedUrl);
-            return uri.getScheme() + "://" + uri.getHost();
-        } catch (URISyntaxException e) {
-            System.err.println("Error extracting base URL: " + e.getMessage());
-            e.printStackTrace();
-            return null;
-        } catch (Exception e) {
-            System.err.println("Unexpected error during base URL extraction: " + e.getMessage());
-            e.printStackTrace();
-            return null;
         }
+        return true;
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
     }
 
+    // Extracts the base URL (scheme://host[:port]) from a given URL
+    public static String getBaseURL(String url) {
+        NormalizedUrl normalized = parse(url);
+        return normalized == null ? null : normalized.baseUrl();
+    }
+
+    // Returns the lower-case host of an absolute URL without parsing the rest, "" if it has none.
+    // Meant for URLs that are already normalized.
     public static String extractDomain(String url) {
-        try {
-            URI parsedUri = URI.create(url);
-            return parsedUri.getHost().toLowerCase();
-        }
-        catch (Exception e) {
+        int start = url.indexOf("://");
+        if (start < 0) {
             return "";
         }
-    }
-
-    // Generates a compact string representation of a document using SHA-256
-    public static String getCompactString(Document doc) {
-        try {
-            if (doc == null) {
-                return null;
+        start += 3;
+        int end = start;
+        int len = url.length();
+        boolean lowerCase = true;
+        while (end < len) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#' || (c == ':' && url.charAt(start) != '[')) {
+                break;
             }
-
-            String content = doc.html();
-            return sha256(content);
-        } catch (Exception e) {
-            System.err.println("Unexpected error during compact string generation: " + e.getMessage());
-            e.printStackTrace();
-            return null;
+            if (c >= 'A' && c <= 'Z') {
+                lowerCase = false;
+            }
+            end++;
         }
+        String host = url.substring(start, end);
+        return lowerCase ? host : host.toLowerCase();
     }
 
-    // Computes the SHA-256 hash of a given input string
-    private static String sha256(String input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hashBytes = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashBytes) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 algorithm not available", e);
+    // Generates a 64-bit SimHash fingerprint of the visible text of a document
+    public static long getPageFingerprint(Document doc) {
+        return SimHash.fingerprint(doc.text());
+    }
+
+    // Computes a 64-bit fingerprint of a normalized URL (FNV-1a, then the murmur3 finalizer to spread the bits)
+    public static long getFingerprint(String url) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            h ^= url.charAt(i);
+            h *= 0x100000001b3L;
         }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
 
 
+
 }
\ No newline at end of file
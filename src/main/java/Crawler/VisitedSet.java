@@ -3,88 +3,114 @@ package Crawler;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 import org.jsoup.nodes.Document;
 
 public class VisitedSet implements Serializable {
-    private final Set<String> visitedUrls = ConcurrentHashMap.newKeySet();
-    private final Set<String> visitedPages = ConcurrentHashMap.newKeySet();
-    private final Map<String, ArrayList<String>> UrlExtractedUrls = new ConcurrentHashMap<>();
-    private final Map<String, Integer> urlsIdMap = new ConcurrentHashMap<>();
+    private static final int EXPECTED_URLS = 1 << 20;
+    private static final int MAX_DUPLICATE_DISTANCE = 3; // SimHash bits two pages may differ in and still count as duplicates
+    // 64-bit fingerprints instead of full strings. URLs get a Bloom filter in front because
+    // checkVisitedUrl runs for every extracted link and most of those lookups are misses.
+    private final FingerprintSet visitedUrls = new FingerprintSet(EXPECTED_URLS, true);
+    private final NearDuplicateDetector visitedPages = new NearDuplicateDetector(MAX_DUPLICATE_DISTANCE);
+    // URL fingerprint -> page id, only for pages that were crawled
+    private final Map<Long, Integer> urlsIdMap = new ConcurrentHashMap<>();
     private transient MongoDBConnection  mongoDBConnection;
+    private transient CrawlJournal journal;
 
     VisitedSet(MongoDBConnection mongoDBConnection) {
         this.mongoDBConnection = mongoDBConnection;
     }
+
+    // Every change made after this call is also appended to the journal
+    public void setJournal(CrawlJournal journal) {
+        this.journal = journal;
+    }
     // Adds a normalized URL to the visited set
     public void addVisitedUrl(String url) {
-        if (url == null) {
-            return;
-        }
-
-        String normalizedUrl = URLNormalizer.normalize(url);
-        if (normalizedUrl != null) {
-            visitedUrls.add(normalizedUrl);
+        NormalizedUrl normalizedUrl = URLNormalizer.parse(url);
+        if (normalizedUrl != null && visitedUrls.add(normalizedUrl.fingerprint()) && journal != null) {
+            journal.visitedUrl(normalizedUrl.fingerprint());
         }
     }
 
-    // Adds a compact string representation of a page to the visited set
+    // Adds the SimHash of a page to the visited set
     public  void addVisitedPage(Document doc) {
-        String page = URLNormalizer.getCompactString(doc);
-        visitedPages.add(page);
+        if (doc == null) {
+            return;
+        }
+        long fingerprint = URLNormalizer.getPageFingerprint(doc);
+        if (!visitedPages.checkAndAdd(fingerprint) && journal != null) {
+            journal.visitedPage(fingerprint);
+        }
     }
 
     // Checks if a normalized URL is in the visited set
     public boolean checkAndAddVisitedUrl(String url) {
-        if (url == null) {
-            return false;
-        }
+        NormalizedUrl normalizedUrl = URLNormalizer.parse(url);
+        return normalizedUrl != null && checkAndAddVisitedUrl(normalizedUrl);
+    }
 
-        String normalizedUrl = URLNormalizer.normalize(url);
-        if (normalizedUrl == null) {
-            return false; // Can't check a null URL
+    public boolean checkAndAddVisitedUrl(NormalizedUrl url) {
+        // add is an atomic check-and-add, no lock needed
+        if (!visitedUrls.add(url.fingerprint())) {
+            return true; // Already visited
         }
-
-        synchronized(this) {
-            if (visitedUrls.contains(normalizedUrl)) {
-                return true; // Already visited
-            }
-            visitedUrls.add(normalizedUrl);
-            return false; // Newly added
+        if (journal != null) {
+            journal.visitedUrl(url.fingerprint());
         }
+        return false; // Newly added
     }
 
-    public boolean checkVisitedUrl(String url) {
-        if (url == null) {
-            return false;
-        }
-
-        String normalizedUrl = URLNormalizer.normalize(url);
-        if (normalizedUrl == null) {
-            return false; // Can't check a null URL
+    // Takes a URL out of the visited set again, for a fetch the server asked us to retry later
+    public void removeVisitedUrl(NormalizedUrl url) {
+        if (visitedUrls.remove(url.fingerprint()) && journal != null) {
+            journal.unvisitedUrl(url.fingerprint());
         }
+    }
 
-        synchronized(this) {
-            return visitedPages.contains(normalizedUrl); // Check if the page is visited
-        }
+    public boolean checkVisitedUrl(String url) {
+        NormalizedUrl normalizedUrl = URLNormalizer.parse(url);
+        return normalizedUrl != null && checkVisitedUrl(normalizedUrl);
+    }
 
+    public boolean checkVisitedUrl(NormalizedUrl url) {
+        return visitedUrls.contains(url.fingerprint()); // Check if the url is visited
     }
 
-    // Checks if a compact string representation of a page is in the visited set
+    // Checks if a page is a near-duplicate of a visited one, adding its SimHash if not
     public  boolean checkAndAddVisitedPage(Document doc) {
-        String page = URLNormalizer.getCompactString(doc);
-        if (page == null || page.trim().isEmpty()) {
+        if (doc == null) {
             return false; // Can't check a null page
         }
 
-        synchronized(this) {
-            if (visitedPages.contains(page)) {
-                return true; // Already visited
-            }
-            visitedPages.add(page);
-            return false; // Newly added
+        return checkAndAddVisitedPage(URLNormalizer.getPageFingerprint(doc));
+    }
+
+    // Same check for a SimHash the caller already computed
+    public boolean checkAndAddVisitedPage(long fingerprint) {
+        if (visitedPages.checkAndAdd(fingerprint)) {
+            return true; // Near-duplicate of a visited page
+        }
+        if (journal != null) {
+            journal.visitedPage(fingerprint);
         }
+        return false; // Newly added
+    }
+
+    // Journal replay, applies a recorded URL fingerprint without journaling it again
+    void restoreVisitedUrl(long fingerprint) {
+        visitedUrls.add(fingerprint);
+    }
+
+    // Journal replay, applies a recorded URL removal without journaling it again
+    void restoreUnvisitedUrl(long fingerprint) {
+        visitedUrls.remove(fingerprint);
+    }
+
+    // Journal replay, applies a recorded page fingerprint without journaling it again
+    void restoreVisitedPage(long fingerprint) {
+        visitedPages.checkAndAdd(fingerprint);
     }
 
     public  int getVisitedPagesCount() {
@@ -95,48 +121,13 @@ public class VisitedSet implements Serializable {
         return visitedUrls.size();
     }
 
-    public void addUrlExtractedUrls(String url, ArrayList<String> ExtractedUrls) {
-        if (url == null ) {
-            return;
-        }
-        String normalizedUrl = URLNormalizer.normalize(url);
-        if (normalizedUrl == null) {
-            return;
-        }
-        if (ExtractedUrls == null) {
-            UrlExtractedUrls.put(normalizedUrl, new ArrayList<>());
-            return;
-        }
-        UrlExtractedUrls.put(normalizedUrl, ExtractedUrls);
-    }
-
-    public void filterAndUploadUrlExtractedUrls() {
-        try {
-            for (Map.Entry<String, ArrayList<String>> entry : UrlExtractedUrls.entrySet()) {
-                String url = entry.getKey();
-                Integer id = urlsIdMap.get(url);
-                ArrayList<String> extractedUrls = entry.getValue();
-
-                // Filter URLs without modifying the original map
-                ArrayList<Integer> filteredUrlIds = extractedUrls.stream()
-                        .filter(extractedUrl -> extractedUrl != null && visitedUrls.contains(extractedUrl))
-                        .map(urlsIdMap::get)
-                        .filter(Objects::nonNull)  // Filter out null IDs
-                        .collect(Collectors.toCollection(ArrayList::new));
-
-                // Insert directly to MongoDB without updating the map
-                mongoDBConnection.insertUrlsGraph(id, filteredUrlIds);
-            }
-        } catch (Exception e) {
-            System.err.println("Error uploading URL graph data: " + e.getMessage());
-        }
-    }
-
-    public void serialize(String filePath) {
+    public boolean serialize(String filePath) {
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
             oos.writeObject(this);
+            return true;
         } catch (IOException e) {
             System.err.println("Error serializing VisitedSet: " + e.getMessage());
+            return false;
         }
     }
 
@@ -154,13 +145,36 @@ public class VisitedSet implements Serializable {
     }
 
     public void mapUrlToId(String url, Integer id) {
-        if (url == null || id == null) {
-            return;
+        NormalizedUrl normalizedUrl = URLNormalizer.parse(url);
+        if (normalizedUrl != null && id != null) {
+            mapUrlToId(normalizedUrl, id);
         }
-        String normalizedUrl = URLNormalizer.normalize(url);
-        if (normalizedUrl == null) {
-            return;
+    }
+
+    public void mapUrlToId(NormalizedUrl url, int id) {
+        urlsIdMap.put(url.fingerprint(), id);
+        if (journal != null) {
+            journal.urlId(url.fingerprint(), id);
         }
-        urlsIdMap.put(normalizedUrl, id);
+    }
+
+    // Journal replay, applies a recorded id assignment without journaling it again
+    void restoreUrlId(long fingerprint, int id) {
+        urlsIdMap.put(fingerprint, id);
+    }
+
+    // Returns the page id of a URL fingerprint, or null if that URL was not crawled
+    public Integer getId(long fingerprint) {
+        return urlsIdMap.get(fingerprint);
+    }
+
+    // URL fingerprint -> page id of every crawled page, read-only
+    public Map<Long, Integer> getUrlIds() {
+        return Collections.unmodifiableMap(urlsIdMap);
+    }
+
+    // Highest page id assigned so far, -1 if none
+    public int getMaxId() {
+        return urlsIdMap.values().stream().mapToInt(Integer::intValue).max().orElse(-1);
     }
 }
\ No newline at end of file
@@ -1,20 +1,59 @@
 package Crawler;
 
+import com.sun.net.httpserver.HttpServer;
+
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class main {
-    private static final int CRAWL_DELAY = 100; // milliseconds
+    private static final String USER_AGENT = "MAMA_Search";
+    private static final int CRAWL_DELAY = 100; // milliseconds between requests to the same host
+    private static final int HANDOFF_CAPACITY = 256; // fetched bodies waiting for a parser thread
+    private static final long SNAPSHOT_INTERVAL = 5 * 60 * 1000; // milliseconds between compacted snapshots
+    private static final long SHUTDOWN_WAIT = 5000; // milliseconds the shutdown hook waits for crawler threads
+    private static final int METRICS_PORT = 9400; // local port of the /metrics endpoint
+    private static final long METRICS_LOG_INTERVAL = 10 * 1000; // milliseconds between metrics log lines
 
+    // Without arguments this is a single-process crawl. "--cluster <file> --node <i>" runs node i of
+    // a multi-process crawl over the nodes listed in the file (see ClusterNode); node 0 coordinates.
     public static void main(String[] args) {
+        String clusterFile = null;
+        int nodeId = 0;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--cluster" -> clusterFile = args[i + 1];
+                case "--node" -> nodeId = Integer.parseInt(args[i + 1]);
+                default -> System.err.println("Unknown option " + args[i]);
+            }
+        }
+        ClusterNode cluster = null;
+        if (clusterFile != null) {
+            try {
+                cluster = new ClusterNode(ClusterNode.readNodes(clusterFile), nodeId, CrawlerThread.maxPages);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error joining the cluster: " + e.getMessage());
+                return;
+            }
+            System.out.println("Crawler node " + nodeId + " of " + cluster.nodeCount() + (cluster.isCoordinator() ? " (coordinator)" : ""));
+        }
+
         // Ask for number of threads
         Scanner scanner = new Scanner(System.in);
         System.out.println("Welcome to the Crawler!");
-        System.out.println("Do you want to load the previous state? (yes/no)");
+        System.out.println("Do you want to load the previous state? (yes/no/recrawl)");
         String loadState = scanner.nextLine().trim().toLowerCase();
+        if (loadState.equals("recrawl")) {
+            System.out.println("Revisiting previously crawled pages...");
+            System.out.print("Enter the maximum number of in-flight requests: ");
+            int maxInFlight = scanner.nextInt();
+            scanner.close();
+            recrawl(maxInFlight);
+            return;
+        }
         if (loadState.equals("yes")) {
             System.out.println("Loading previous state...");
         } else if (loadState.equals("no")) {
@@ -22,7 +61,16 @@ public class main {
         } else {
             System.out.println("Invalid input. Starting a new crawl...");
         }
-        System.out.print("Enter the number of threads: ");
+        System.out.println("Use asynchronous fetching? (yes/no)");
+        boolean asyncFetch = scanner.nextLine().trim().equalsIgnoreCase("yes");
+        int maxInFlight = 0;
+        if (asyncFetch) {
+            System.out.print("Enter the maximum number of in-flight requests: ");
+            maxInFlight = scanner.nextInt();
+            System.out.print("Enter the number of parser threads: ");
+        } else {
+            System.out.print("Enter the number of threads: ");
+        }
         int numThreads = scanner.nextInt();
         scanner.close();
 
@@ -33,7 +81,9 @@ public class main {
         URLFrontier frontier = null;
 
         String currentDir = System.getProperty("user.dir");
-        String statesDir = currentDir + "/States/";
+        // Nodes of a cluster may share a working directory, each keeps its own state
+        String statesDir = currentDir + "/States/" + (cluster == null ? "" : "node-" + cluster.getNodeId() + "/");
+        int idRangeStart = cluster == null ? 0 : cluster.idRangeStart();
         // Create states directory if it doesn't exist
         File statesDirFile = new File(statesDir);
         if (!statesDirFile.exists()) {
@@ -44,20 +94,25 @@ public class main {
         boolean loadedFromStates = false;
         if (loadState.equals("yes"))
         {
-            mongoDBConnection.deleteAllUrlGraph();
+            deleteUrlGraph(mongoDBConnection, cluster);
             File visitedSetFile = new File(statesDir + "visited_set.ser");
-            File frontierFile = new File(statesDir + "frontier.ser");
+            File frontierDir = new File(statesDir + "frontier");
             File robotsCacheFile = new File(statesDir + "robots_cache.ser");
 
-            if (visitedSetFile.exists() && frontierFile.exists() && robotsCacheFile.exists()) {
+            if (visitedSetFile.exists() && frontierDir.exists() && robotsCacheFile.exists()) {
                 // Try to load the states
                 visitedSet = VisitedSet.deserialize(statesDir + "visited_set.ser", mongoDBConnection);
                 robotsParser = RobotsTxtParser.deserialize(statesDir + "robots_cache.ser");
 
                 if (visitedSet != null && robotsParser != null) {
-                    frontier = URLFrontier.deserialize(statesDir + "frontier.ser", visitedSet);
+                    frontier = URLFrontier.deserialize(statesDir + "frontier/", visitedSet, CRAWL_DELAY);
                     if (frontier != null) {
+                        if (cluster != null) {
+                            frontier.setPartition(cluster::isLocal, cluster::forward);
+                        }
                         loadedFromStates = true;
+                        // Bring the snapshot up to date with everything journaled after it
+                        CrawlJournal.replay(statesDir + "journal/", visitedSet, frontier, robotsParser);
                         System.out.println("Loaded previous crawler state from files.");
                     }
                 }
@@ -68,17 +123,63 @@ public class main {
         if (!loadedFromStates) {
             visitedSet = new VisitedSet(mongoDBConnection);
             robotsParser = new RobotsTxtParser();
-            frontier = new URLFrontier(visitedSet);
-            addSeedUrls(frontier);
-            mongoDBConnection.deleteAllCrawledPages();
-            mongoDBConnection.deleteAllUrlGraph();
+            frontier = new URLFrontier(visitedSet, CRAWL_DELAY, statesDir + "frontier/");
+            if (cluster == null) {
+                mongoDBConnection.deleteAllCrawledPages();
+            } else {
+                // Other nodes may already be storing pages, only this node's id range is cleared
+                frontier.setPartition(cluster::isLocal, cluster::forward);
+                mongoDBConnection.deleteCrawledPages(idRangeStart, idRangeStart + ClusterNode.ID_RANGE_SIZE);
+            }
+            deleteUrlGraph(mongoDBConnection, cluster);
+            // In a cluster the coordinator seeds, the seeds of other nodes' hosts are forwarded to them
+            if (cluster == null || cluster.isCoordinator()) {
+                addSeedUrls(frontier);
+            }
             System.out.println("Created new crawler with seed URLs.");
         }
 
+        // Journal every change from here on, a fresh crawl starts with an empty journal
+        CrawlJournal journal;
+        LinkGraph linkGraph;
+        try {
+            journal = new CrawlJournal(statesDir + "journal/", !loadedFromStates);
+            // Out-links are streamed to disk and uploaded to url_graph in the background
+            linkGraph = new LinkGraph(statesDir + "graph/", visitedSet, mongoDBConnection, !loadedFromStates);
+        } catch (IOException e) {
+            System.err.println("Error opening crawl state files: " + e.getMessage());
+            return;
+        }
+        visitedSet.setJournal(journal);
+        frontier.setJournal(journal);
+        robotsParser.setJournal(journal);
+        if (!loadedFromStates) {
+            // First snapshot, so a crash before the periodic one can still be resumed
+            journal.snapshot(visitedSet, frontier, robotsParser, statesDir);
+        }
+
+        // Pages and robots.txt share one client with pooled keep-alive connections
+        CrawlerHttpClient httpClient = new CrawlerHttpClient(USER_AGENT);
+        robotsParser.setHttpClient(httpClient);
+        // Let robots.txt Crawl-delay directives slow down individual hosts
+        robotsParser.setCrawlDelayListener(frontier::setHostDelay);
+        // Queue the URLs of the sitemaps listed in robots.txt, bypassing the navigation pages
+        SitemapFetcher sitemapFetcher = new SitemapFetcher(httpClient, frontier);
+        robotsParser.setSitemapListener(sitemapFetcher::fetch);
+        // Resolve the host and fetch robots.txt in the background as soon as a host is queued
+        RobotsTxtParser listenerRobotsParser = robotsParser;
+        frontier.setNewHostListener(url -> {
+            httpClient.prefetch(url);
+            listenerRobotsParser.prefetch(url);
+        });
+
         int crawledPagesCount = visitedSet.getVisitedPagesCount();
 
         CrawlerThread.setPageCount(crawledPagesCount);
-        CrawlerThread.setId(crawledPagesCount - 1);
+        CrawlerThread.setId(Math.max(idRangeStart + crawledPagesCount - 1, visitedSet.getMaxId()));
+        if (cluster != null) {
+            cluster.start(frontier, linkGraph);
+        }
 
         // Print URL frontier size
         System.out.println("URL Frontier size: " + frontier.size());
@@ -86,16 +187,53 @@ public class main {
         // Print visited set size
         System.out.println("Visited Set size: " + visitedSet.getVisitedPagesCount());
 
-        // Start crawling
-        System.out.println("Starting crawler with " + numThreads + " threads...");
-
         // Create and start crawler threads
         List<Thread> threads = new ArrayList<>();
-        for (int i = 0; i < numThreads; i++) {
-            CrawlerThread crawler = new CrawlerThread(visitedSet, robotsParser, frontier, mongoDBConnection, CRAWL_DELAY);
-            Thread thread = new Thread(crawler, "Crawler-" + i);
-            threads.add(thread);
-            thread.start();
+        List<Thread> fetchThreads = new ArrayList<>();
+        PageFetcher pageFetcher = new PageFetcher(httpClient, HANDOFF_CAPACITY);
+        // The number entered is the most requests in flight, the controller finds how many work
+        ConcurrencyController concurrencyController = new ConcurrencyController(asyncFetch ? maxInFlight : numThreads);
+        concurrencyController.setHostBackoffListener(frontier::backOffHost);
+        pageFetcher.setConcurrencyController(concurrencyController);
+
+        // Queue depths are read whenever metrics are reported
+        URLFrontier metricsFrontier = frontier;
+        CrawlerMetrics.registerGauge("frontier_urls", metricsFrontier::size);
+        CrawlerMetrics.registerGauge("frontier_hosts", metricsFrontier::hostCount);
+        CrawlerMetrics.registerGauge("concurrency_limit", concurrencyController::getLimit);
+        CrawlerMetrics.registerGauge("in_flight", concurrencyController::getInFlight);
+        CrawlerMetrics.registerGauge("parser_queue", pageFetcher::pendingPages);
+        CrawlerMetrics.registerGauge("mongo_queue", mongoDBConnection::pendingWrites);
+        CrawlerMetrics.setHostQueueDepths(metricsFrontier::largestHostQueues);
+        if (cluster != null) {
+            CrawlerMetrics.registerGauge("forward_queue", cluster::bufferedUrls);
+        }
+        // Nodes on one machine get consecutive metrics ports
+        int metricsPort = METRICS_PORT + (cluster == null ? 0 : cluster.getNodeId());
+        HttpServer metricsServer = CrawlerMetrics.serve(metricsPort);
+        if (metricsServer != null) {
+            System.out.println("Crawler metrics at http://localhost:" + metricsPort + "/metrics");
+        }
+        if (asyncFetch) {
+            // Fetch on virtual threads, parse on platform threads
+            System.out.println("Starting crawler with " + maxInFlight + " in-flight requests and " + numThreads + " parser threads...");
+            CrawlerThread crawler = new CrawlerThread(visitedSet, robotsParser, frontier, mongoDBConnection, linkGraph, pageFetcher, concurrencyController);
+            for (int i = 0; i < maxInFlight; i++) {
+                fetchThreads.add(Thread.ofVirtual().name("Fetcher-" + i).start(crawler::fetchLoop));
+            }
+            for (int i = 0; i < numThreads; i++) {
+                Thread thread = new Thread(crawler::parseLoop, "Parser-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+        } else {
+            System.out.println("Starting crawler with " + numThreads + " threads...");
+            for (int i = 0; i < numThreads; i++) {
+                CrawlerThread crawler = new CrawlerThread(visitedSet, robotsParser, frontier, mongoDBConnection, linkGraph, pageFetcher, concurrencyController);
+                Thread thread = new Thread(crawler, "Crawler-" + i);
+                threads.add(thread);
+                thread.start();
+            }
         }
 
         // Add shutdown hook to save states on exit
@@ -107,24 +245,48 @@ public class main {
             CrawlerThread.setShuttingDown(true);
 
             // Give threads a moment to notice the flag and stop
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
+            long deadline = System.currentTimeMillis() + SHUTDOWN_WAIT;
+            List<Thread> allThreads = new ArrayList<>(fetchThreads);
+            allThreads.addAll(threads);
+            for (Thread thread : allThreads) {
+                try {
+                    thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException e) {
+                    break;
+                }
             }
 
+            // Flush pages still waiting in the write-behind buffer
+            mongoDBConnection.close();
+            linkGraph.flush();
+
+            // Everything is already in the journal, a final snapshot just makes the next start faster
             synchronized (CrawlerThread.class) {
-                finalVisitedSet.serialize(statesDir + "visited_set.ser");
-                finalFrontier.serialize(statesDir + "frontier.ser");
-                finalRobotsParser.serialize(statesDir + "robots_cache.ser");
+                journal.snapshot(finalVisitedSet, finalFrontier, finalRobotsParser, statesDir);
+                journal.close();
             }
             System.out.println("States saved successfully. Exiting.");
         }));
 
 
-        while(visitedSet.getVisitedPagesCount() < CrawlerThread.maxPages)
+        long lastSnapshot = System.currentTimeMillis();
+        long lastMetricsLog = System.currentTimeMillis();
+        while(visitedSet.getVisitedPagesCount() < CrawlerThread.maxPages && (cluster == null || !cluster.isStopped()))
         {
             try {
-                System.out.println("number of pages crawled: " + visitedSet.getVisitedPagesCount());
+                if (cluster != null) {
+                    cluster.reportProgress(visitedSet.getVisitedPagesCount());
+                }
+                if (System.currentTimeMillis() - lastMetricsLog >= METRICS_LOG_INTERVAL) {
+                    System.out.println(CrawlerMetrics.summaryLine());
+                    lastMetricsLog = System.currentTimeMillis();
+                }
+                journal.flush();
+                linkGraph.flush();
+                if (System.currentTimeMillis() - lastSnapshot >= SNAPSHOT_INTERVAL) {
+                    journal.snapshot(visitedSet, frontier, robotsParser, statesDir);
+                    lastSnapshot = System.currentTimeMillis();
+                }
                 Thread.sleep(1000);
             } catch (InterruptedException e) {
                 System.err.println("Interrupted while waiting for threads to finish");
@@ -132,7 +294,21 @@ public class main {
         }
 
 
-        // Wait for all threads to complete
+        if (cluster != null) {
+            // The budget was reached over the whole cluster, this node's threads would not stop on their own
+            CrawlerThread.setShuttingDown(true);
+        }
+
+        // Wait for all threads to complete, the fetch stage first so the parsers can drain it
+        for (Thread thread : fetchThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                System.err.println("Interrupted while waiting for threads to finish");
+            }
+        }
+        sitemapFetcher.close();
+        pageFetcher.close();
         for (Thread thread : threads) {
             try {
                 thread.join();
@@ -140,21 +316,72 @@ public class main {
                 System.err.println("Interrupted while waiting for threads to finish");
             }
         }
+        httpClient.close();
 
 
+        // Write out the remaining buffered pages
+        mongoDBConnection.close();
+        System.out.println(CrawlerMetrics.summaryLine());
+        if (metricsServer != null) {
+            metricsServer.stop(0);
+        }
+
         // Save states
         System.out.println("Saving crawler states...");
-        visitedSet.serialize(statesDir + "visited_set.ser");
-        frontier.serialize(statesDir + "frontier.ser");
-        robotsParser.serialize(statesDir + "robots_cache.ser");
+        journal.snapshot(visitedSet, frontier, robotsParser, statesDir);
 
         // Print final count
         System.out.println("Crawling complete. Number of crawled pages: " + visitedSet.getVisitedPagesCount());
 
-        // Upload URL graph data to MongoDB
+        // Links to pages of other nodes can only be resolved with their ids
+        if (cluster != null) {
+            System.out.println("Exchanging page ids with the other nodes...");
+            cluster.exchangeIds(visitedSet);
+        }
+
+        // Finish the URL graph upload, adding links to pages crawled after the page linking to them
         System.out.println("Uploading URL graph data to MongoDB...");
-        visitedSet.filterAndUploadUrlExtractedUrls();
+        linkGraph.close();
         System.out.println("URL graph data upload completed.");
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+
+    // Drops url_graph before it is uploaded again; in a cluster only this node's sources are removed
+    private static void deleteUrlGraph(MongoDBConnection mongoDBConnection, ClusterNode cluster) {
+        if (cluster == null) {
+            mongoDBConnection.deleteAllUrlGraph();
+        } else {
+            mongoDBConnection.deleteUrlGraph(cluster.idRangeStart(), cluster.idRangeStart() + ClusterNode.ID_RANGE_SIZE);
+        }
+    }
+
+    // Revisit mode: conditional GETs for the crawled pages that are due, nothing is dropped or re-seeded
+    private static void recrawl(int maxInFlight) {
+        String statesDir = System.getProperty("user.dir") + "/States/";
+        MongoDBConnection mongoDBConnection = new MongoDBConnection();
+        RobotsTxtParser robotsParser = null;
+        if (new File(statesDir + "robots_cache.ser").exists()) {
+            robotsParser = RobotsTxtParser.deserialize(statesDir + "robots_cache.ser");
+        }
+        if (robotsParser == null) {
+            robotsParser = new RobotsTxtParser();
+        }
+
+        CrawlerHttpClient httpClient = new CrawlerHttpClient(USER_AGENT);
+        robotsParser.setHttpClient(httpClient);
+        RecrawlScheduler scheduler = new RecrawlScheduler(mongoDBConnection, robotsParser, httpClient, CRAWL_DELAY, statesDir + "recrawl/");
+        // Fetch latencies and Mongo writes are recorded here as in a crawl
+        CrawlerMetrics.registerGauge("mongo_queue", mongoDBConnection::pendingWrites);
+        HttpServer metricsServer = CrawlerMetrics.serve(METRICS_PORT);
+        scheduler.run(maxInFlight);
+        httpClient.close();
+        mongoDBConnection.close();
+        System.out.println(CrawlerMetrics.summaryLine());
+        if (metricsServer != null) {
+            metricsServer.stop(0);
+        }
     }
 
     private static void addSeedUrls(URLFrontier frontier) {
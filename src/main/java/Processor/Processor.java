@@ -1,6 +1,8 @@
 package Processor;
 
 import DBClient.MongoDBClient;
+import com.mamasearch.Indexer.IndexSegment;
+import com.mamasearch.Indexer.IndexSegments;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import opennlp.tools.tokenize.TokenizerME;
@@ -21,9 +23,8 @@ public class Processor {
     private String [] quotedParts;
     private String [] operators;
     public ArrayList<String> allTokens;
-    private final MongoCollection<Document> collection1;
     private final MongoCollection<Document> collection2;
-    private static final String COLLECTION1_NAME = "inverted_index";
+    private final IndexSegments segments;
     private static final String COLLECTION2_NAME = "search_queries";
 
     private static final Set<String> stopWords = new HashSet<>(Arrays.asList(
@@ -56,8 +57,9 @@ public class Processor {
             this.tokenizer = new TokenizerME(model);
         }
         MongoDatabase database = MongoDBClient.getDatabase();
-        this.collection1 = database.getCollection(COLLECTION1_NAME);
         this.collection2 = database.getCollection(COLLECTION2_NAME);
+        // Postings are read from the memory-mapped index segments
+        this.segments = IndexSegments.open(IndexSegments.DEFAULT_DIRECTORY);
         allTokens = new ArrayList<>();
         try {
             database.runCommand(new Document("ping", 1));
@@ -141,18 +143,84 @@ public class Processor {
         String[] words = stemAll(tokenize(searchQuery));
         ArrayList<Document> relevantDocuments = new ArrayList<>();
         for(String word : words) {
-            Document query = new Document("word", word);
-            Document doc = collection1.find(query).first();
-            if (doc != null) {
-                List<Document> occurrences = doc.containsKey("ids") ?
-                        doc.getList("ids", Document.class) :
-                        new ArrayList<>();
-                relevantDocuments.addAll(occurrences);
-            }
+            relevantDocuments.addAll(getOccurrences(word, false));
         }
         return relevantDocuments;
     }
 
+    // The postings of a word as documents with "id" and "score", plus the ascending "positions" as an
+    // int[] if withPositions. Positions are only decoded when asked for.
+    private List<Document> getOccurrences(String word, boolean withPositions) {
+        List<Document> occurrences = new ArrayList<>();
+        for (IndexSegment.Postings postings : segments.postings(word)) {
+            while (postings.next()) {
+                occurrences.add(toOccurrence(postings, withPositions));
+            }
+        }
+        return occurrences;
+    }
+
+    private static Document toOccurrence(IndexSegment.Postings postings, boolean withPositions) {
+        Document occurrence = new Document("id", postings.docId()).append("score", postings.score());
+        if (withPositions) {
+            occurrence.append("positions", postings.positions());
+        }
+        return occurrence;
+    }
+
+    // Documents that contain every word, with one occurrence per word in word order. The posting
+    // lists of each segment are intersected by leapfrogging: every list advances to the highest
+    // document seen so far, using its skip list, so only the documents near the rarest word's are
+    // decoded and only the matches get their positions read.
+    private Map<Integer, List<Document>> getCommonOccurrences(String[] words) {
+        Map<Integer, List<Document>> docOccurrences = new HashMap<>();
+        if (words.length == 0) {
+            return docOccurrences;
+        }
+        segmentLoop:
+        for (IndexSegment segment : segments.getSegments()) {
+            IndexSegment.Postings[] lists = new IndexSegment.Postings[words.length];
+            for (int w = 0; w < words.length; w++) {
+                lists[w] = segment.postings(words[w]);
+                if (lists[w] == null) {
+                    continue segmentLoop;
+                }
+            }
+            if (!lists[0].next()) {
+                continue;
+            }
+            int target = lists[0].docId();
+            int agreeing = 1;
+            int w = 1 % lists.length;
+            while (true) {
+                if (agreeing == lists.length) {
+                    List<Document> occurrences = new ArrayList<>(lists.length);
+                    for (IndexSegment.Postings list : lists) {
+                        occurrences.add(toOccurrence(list, true));
+                    }
+                    docOccurrences.put(target, occurrences);
+                    if (target == Integer.MAX_VALUE || !lists[w].advance(target + 1)) {
+                        break;
+                    }
+                    target = lists[w].docId();
+                    agreeing = 1;
+                } else {
+                    if (!lists[w].advance(target)) {
+                        break;
+                    }
+                    if (lists[w].docId() == target) {
+                        agreeing++;
+                    } else {
+                        target = lists[w].docId();
+                        agreeing = 1;
+                    }
+                }
+                w = (w + 1) % lists.length;
+            }
+        }
+        return docOccurrences;
+    }
+
     public ArrayList<Document> getPhraseDocuments() {
         allTokens.clear();
         ArrayList<Document> phraseDocuments = new ArrayList<>();
@@ -161,32 +229,17 @@ public class Processor {
             // Tokenize and stem the current quoted phrase
             String[] words = stemAll(tokenize(quotedParts[i]));
             ArrayList<Document> currentPhraseDocs = new ArrayList<>();
-            Map<Integer, List<Document>> docOccurrences = new HashMap<>();
 
             // Find documents containing all words in the phrase
-            for (String word : words) {
-                Document query = new Document("word", word);
-                Document doc = collection1.find(query).first();
-                if (doc != null) {
-                    List<Document> occurrences = doc.containsKey("ids") ?
-                            doc.getList("ids", Document.class) :
-                            new ArrayList<>();
-                    for (Document occurrence : occurrences) {
-                        Integer id = occurrence.getInteger("id");
-                        if (id != null) {
-                            docOccurrences.computeIfAbsent(id, k -> new ArrayList<>()).add(occurrence);
-                        }
-                    }
-                }
-            }
+            Map<Integer, List<Document>> docOccurrences = getCommonOccurrences(words);
 
             // Check for phrase matches (sequential word positions)
             for (Map.Entry<Integer, List<Document>> entry : docOccurrences.entrySet()) {
                 Integer id = entry.getKey();
                 List<Document> occurrences = entry.getValue();
                 if (occurrences.size() == words.length) {
-                    List<Integer> firstWordPos = occurrences.get(0).getList("positions", Integer.class);
-                    for (Integer pos : firstWordPos) {
+                    int[] firstWordPos = occurrences.get(0).get("positions", int[].class);
+                    for (int pos : firstWordPos) {
                         if (checkPosition(occurrences, pos, words.length, 1)) {
                             currentPhraseDocs.addAll(occurrences);
                             break;
@@ -252,13 +305,13 @@ public class Processor {
 
         return phraseDocuments;
     }
-    private boolean checkPosition(List<Document> positions, Integer position, int length, int i) {
+    private boolean checkPosition(List<Document> positions, int position, int length, int i) {
         if(i == length) {
             return true;
         }
         Document doc = positions.get(i);
-        List<Integer> pos = doc.getList("positions", Integer.class);
-        if(pos.contains(position + 1)) {
+        int[] pos = doc.get("positions", int[].class);
+        if(Arrays.binarySearch(pos, position + 1) >= 0) {
             return checkPosition(positions, position + 1, length, i+1);
         } else {
             return false;
@@ -1,23 +1,42 @@
 package com.mamasearch.Indexer;
 
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 public class DocumentData {
     private final Integer ID;
-    private final String content;
     private List<ParsedWord> filteredWords = new ArrayList<ParsedWord>();
+    private DocumentStats stats;
 
     public DocumentData(Integer ID, String content) {
+        this(ID, Jsoup.parse(content));
+    }
+
+    // Only the filtered words are kept, the parsed page is dropped once they are extracted
+    public DocumentData(Integer ID, Document doc) {
         this.ID = ID;
-        this.content = content;
-        this.filteredWords = DocumentParser.ParesingandFilteringDocuments(ID, this.content);
+        this.filteredWords = DocumentParser.ParesingandFilteringDocuments(ID, doc);
+    }
+
+    // Fields the crawler already extracted, see DocumentParser
+    public DocumentData(Integer ID, String title, List<String> h1, List<String> h2, List<String> h3, List<String> text) {
+        this.ID = ID;
+        this.filteredWords = DocumentParser.ParesingandFilteringDocuments(ID, title, h1, h2, h3, text);
     }
 
     public Integer getID() { return ID; }
-    public String getContent() { return content; }
     public List<ParsedWord> getFilteredWords() {return filteredWords;}
-    public Map<String,Double> getTF() {return TFCalculator.calculateWeightedTF(filteredWords);}
+    // Computed on first use, every later caller gets the same statistics
+    public DocumentStats getStats() {
+        if (stats == null) {
+            stats = DocumentStats.of(filteredWords);
+        }
+        return stats;
+    }
+    public Map<String,Double> getTF() {return TFCalculator.calculateWeightedTF(getStats());}
 
 }
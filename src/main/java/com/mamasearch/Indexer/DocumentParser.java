@@ -16,54 +16,67 @@ import java.util.*;
 
 public class DocumentParser {
     public static List<ParsedWord> ParesingandFilteringDocuments(Integer ID,String htmlContent) {
+        return ParesingandFilteringDocuments(ID, Jsoup.parse(htmlContent));
+    }
+
+    // Pages stored before the crawler extracted their fields: the parsed HTML is reduced to the same fields
+    public static List<ParsedWord> ParesingandFilteringDocuments(Integer ID, Document doc) {
+        // Normal (rest of body, excluding already processed elements)
+        Elements bodyElements = doc.body().select("*"); // Select all elements in body
+        List<String> plainText = new ArrayList<>();
+        List<String> normalText = new ArrayList<>();
+        for (Element element : bodyElements) {
+            if (element.tagName().matches("script|style")) {
+                continue;
+            }
+            String text = element.ownText().trim(); // Use ownText to avoid text from child elements
+            if (text.isEmpty()) {
+                continue;
+            }
+            plainText.add(text);
+            // Skip h1, h2, h3, they are weighted by their own tag
+            if (!element.tagName().matches("h1|h2|h3")) {
+                normalText.add(text);
+            }
+        }
+
+        savePlainTextToFile(ID, plainText); // Save plain text to file
+
+        return parseFields(doc.title(), doc.select("h1").eachText(), doc.select("h2").eachText(), doc.select("h3").eachText(), normalText);
+    }
+
+    // Fields the crawler extracted while crawling: text holds the page's text blocks in document
+    // order, headings included, so no HTML has to be parsed here
+    public static List<ParsedWord> ParesingandFilteringDocuments(Integer ID, String title, List<String> h1, List<String> h2,
+                                                                 List<String> h3, List<String> text) {
+        savePlainTextToFile(ID, text); // Save plain text to file
+        return parseFields(title, h1, h2, h3, text);
+    }
+
+    private static List<ParsedWord> parseFields(String title, List<String> h1, List<String> h2, List<String> h3, List<String> normalText) {
         List<ParsedWord> parsedWords = new ArrayList<>();
         Set<String> processedText = new HashSet<>(); // To track processed text
         int position = 0;
 
-        Document doc = Jsoup.parse(htmlContent);
-
         // Title
-        String title = doc.title();
-        if (!title.isEmpty()) {
+        if (title != null && !title.isEmpty()) {
             position = addWords(parsedWords, title, "title", position);
             processedText.add(title);
         }
 
-        // h1
-        Elements h1Tags = doc.select("h1");
-        position = extractAndAdd(parsedWords, h1Tags, "h1", position, processedText);
-
-        // h2
-        Elements h2Tags = doc.select("h2");
-        position = extractAndAdd(parsedWords, h2Tags, "h2", position, processedText);
-
-        // h3
-        Elements h3Tags = doc.select("h3");
-        position = extractAndAdd(parsedWords, h3Tags, "h3", position, processedText);
+        position = extractAndAdd(parsedWords, h1, "h1", position, processedText);
+        position = extractAndAdd(parsedWords, h2, "h2", position, processedText);
+        position = extractAndAdd(parsedWords, h3, "h3", position, processedText);
 
-        // Normal (rest of body, excluding already processed elements)
-        Elements bodyElements = doc.body().select("*"); // Select all elements in body
-
-        savePlainTextToFile(ID, bodyElements); // Save plain text to file
-
-        for (Element element : bodyElements) {
-            // Skip h1, h2, h3, and script/style elements
-            if (element.tagName().matches("h1|h2|h3|script|style")) {
-                continue;
-            }
-            String text = element.ownText().trim(); // Use ownText to avoid text from child elements
-            if (!text.isEmpty() && !processedText.contains(text)) {
-                position = addWords(parsedWords, text, "normal", position);
-                processedText.add(text);
-            }
-        }
+        // Normal, text already added under a heading or the title is skipped
+        extractAndAdd(parsedWords, normalText, "normal", position, processedText);
 
         return parsedWords;
     }
 
-    private static int extractAndAdd(List<ParsedWord> list, Elements elements, String tag, int startPosition, Set<String> processedText) {
-        for (Element element : elements) {
-            String text = element.text().trim();
+    private static int extractAndAdd(List<ParsedWord> list, List<String> texts, String tag, int startPosition, Set<String> processedText) {
+        for (String element : texts) {
+            String text = element.trim();
             if (!text.isEmpty() && !processedText.contains(text)) {
                 startPosition = addWords(list, text, tag, startPosition);
                 processedText.add(text);
@@ -83,12 +96,9 @@ public class DocumentParser {
         return startPosition;
     }
 
-    private static void savePlainTextToFile(Integer ID, Elements bodyElements) {
+    private static void savePlainTextToFile(Integer ID, List<String> texts) {
         StringBuilder plainTextBuilder = new StringBuilder();
-        for (Element element : bodyElements) {
-            if (element.tagName().matches("script|style")) continue;
-
-            String text = element.ownText().trim();
+        for (String text : texts) {
             if (!text.isEmpty()) {
                 plainTextBuilder.append(text).append("\n");
             }
@@ -0,0 +1,72 @@
+package com.mamasearch.Indexer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// What the index needs from one document, gathered in a single pass over its parsed words: per word
+// its positions, how often it occurs and its field-weighted count, plus the length of the document
+// in words and in weight. The weighted TF of a word is its weighted count over the total weight.
+public class DocumentStats {
+    private final Map<String, TermStats> terms;
+    private final int length;
+    private final double totalWeight;
+
+    public static class TermStats {
+        private int[] positions = new int[4];
+        private int count = 0;
+        private double weightedCount = 0;
+
+        private void add(int position, double weight) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+            }
+            positions[count++] = position;
+            weightedCount += weight;
+        }
+
+        // Positions in the order they were added, which is ascending
+        public int[] getPositions() {
+            return count == positions.length ? positions : Arrays.copyOf(positions, count);
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public double getWeightedCount() {
+            return weightedCount;
+        }
+    }
+
+    private DocumentStats(Map<String, TermStats> terms, int length, double totalWeight) {
+        this.terms = terms;
+        this.length = length;
+        this.totalWeight = totalWeight;
+    }
+
+    public static DocumentStats of(List<ParsedWord> parsedWords) {
+        Map<String, TermStats> terms = new HashMap<>();
+        double totalWeight = 0;
+        for (ParsedWord word : parsedWords) {
+            double weight = TFCalculator.weightOf(word.getTag());
+            terms.computeIfAbsent(word.getWord(), k -> new TermStats()).add(word.getPosition(), weight);
+            totalWeight += weight;
+        }
+        return new DocumentStats(terms, parsedWords.size(), totalWeight);
+    }
+
+    public Map<String, TermStats> getTerms() {
+        return terms;
+    }
+
+    public double getWeightedTF(TermStats term) {
+        return term.weightedCount / totalWeight;
+    }
+
+    // Number of words in the document
+    public int getLength() {
+        return length;
+    }
+}
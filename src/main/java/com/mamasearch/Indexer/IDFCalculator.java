@@ -35,13 +35,9 @@ public class IDFCalculator {
         Map<String, Integer> docFreq = new HashMap<>();
 
         for ( DocumentData document : documents) {
-            Set<String> uniqueWordsInDoc = new HashSet<>();
-            List<ParsedWord> docWords = document.getFilteredWords();
-            for (ParsedWord pw : docWords) {
-                uniqueWordsInDoc.add(pw.getWord());
-            }
-            for (String word : uniqueWordsInDoc) {
-                docFreq.put(word, docFreq.getOrDefault(word, 0) + 1);
+            // The words of the statistics are already unique
+            for (String word : document.getStats().getTerms().keySet()) {
+                docFreq.merge(word, 1, Integer::sum);
             }
         }
 
@@ -0,0 +1,293 @@
+package com.mamasearch.Indexer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static com.mamasearch.Indexer.IndexSegmentWriter.*;
+
+// A segment written by IndexSegmentWriter, its files memory-mapped as MemorySegments, which take
+// long offsets and so map files of any size. Only the block index of the term dictionary is kept on
+// the heap; looking up a word is a binary search over the blocks and a scan of at most
+// TERM_BLOCK_SIZE entries, and its postings are read straight from the mapping. Reads use absolute
+// offsets only, so one segment serves any number of threads. The mappings belong to an automatic
+// arena and are unmapped once the segment is no longer reachable.
+public class IndexSegment {
+    // The writer's DataOutputStream is big-endian and packs values without alignment
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfFloat FLOAT = ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private final Path path;
+    private final MemorySegment terms;
+    private final MemorySegment postings;
+    private final MemorySegment positions;
+    private final byte[][] blockFirstWords;
+    private final long[] blockOffsets;
+    private final int termCount;
+    private final BitSet documents;
+    // Documents indexed again into a newer segment, their postings here are stale and skipped
+    private BitSet superseded = null;
+
+    private IndexSegment(Path path, MemorySegment terms, MemorySegment postings, MemorySegment positions, BitSet documents) throws IOException {
+        this.path = path;
+        this.documents = documents;
+        this.terms = terms;
+        this.postings = postings;
+        this.positions = positions;
+
+        long footer = terms.byteSize() - FOOTER_SIZE;
+        if (footer < 0 || terms.get(INT, footer + 12) != MAGIC) {
+            throw new IOException("Not an index segment: " + path);
+        }
+        this.termCount = terms.get(INT, footer + 8);
+        long[] offset = {terms.get(LONG, footer)};
+        int blockCount = readVInt(terms, offset);
+        this.blockFirstWords = new byte[blockCount][];
+        this.blockOffsets = new long[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            byte[] word = new byte[readVInt(terms, offset)];
+            MemorySegment.copy(terms, ValueLayout.JAVA_BYTE, offset[0], word, 0, word.length);
+            offset[0] += word.length;
+            blockFirstWords[b] = word;
+            blockOffsets[b] = terms.get(LONG, offset[0]);
+            offset[0] += 8;
+        }
+    }
+
+    public static IndexSegment open(Path path) throws IOException {
+        return new IndexSegment(path, map(path.resolve(TERMS_FILE)), map(path.resolve(POSTINGS_FILE)),
+                map(path.resolve(POSITIONS_FILE)), readDocuments(path.resolve(DOCUMENTS_FILE)));
+    }
+
+    private static BitSet readDocuments(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            long[] bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = in.readLong();
+            }
+            return BitSet.valueOf(bits);
+        }
+    }
+
+    private static MemorySegment map(Path file) throws IOException {
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    // Ids of the documents indexed into this segment
+    public BitSet getDocuments() {
+        return documents;
+    }
+
+    // Set by IndexSegments before the segment is used
+    void setSuperseded(BitSet superseded) {
+        this.superseded = superseded;
+    }
+
+    // Postings of word in this segment, null if no document of the segment has it
+    public Postings postings(String word) {
+        byte[] target = word.getBytes(StandardCharsets.UTF_8);
+        // Last block whose first word is <= target
+        int low = 0;
+        int high = blockFirstWords.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Arrays.compareUnsigned(blockFirstWords[mid], target) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return null;
+        }
+
+        int entries = Math.min(TERM_BLOCK_SIZE, termCount - block * TERM_BLOCK_SIZE);
+        long[] offset = {blockOffsets[block]};
+        byte[] current = new byte[Math.max(target.length, 32)];
+        for (int e = 0; e < entries; e++) {
+            int shared = readVInt(terms, offset);
+            int suffix = readVInt(terms, offset);
+            if (shared + suffix > current.length) {
+                current = Arrays.copyOf(current, shared + suffix);
+            }
+            MemorySegment.copy(terms, ValueLayout.JAVA_BYTE, offset[0], current, shared, suffix);
+            offset[0] += suffix;
+            readVInt(terms, offset); // document frequency, the postings repeat it
+            long postingsOffset = terms.get(LONG, offset[0]);
+            long positionsOffset = terms.get(LONG, offset[0] + 8);
+            offset[0] += 16;
+
+            int cmp = Arrays.compareUnsigned(current, 0, shared + suffix, target, 0, target.length);
+            if (cmp == 0) {
+                return new Postings(postings, postingsOffset, positions, positionsOffset, superseded);
+            }
+            if (cmp > 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // Reads a variable-byte integer at offset[0] and moves offset[0] past it
+    static int readVInt(MemorySegment segment, long[] offset) {
+        long i = offset[0];
+        int b = segment.get(ValueLayout.JAVA_BYTE, i++);
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = segment.get(ValueLayout.JAVA_BYTE, i++);
+            value |= (b & 0x7F) << shift;
+        }
+        offset[0] = i;
+        return value;
+    }
+
+    // Walks the posting list of one word document by document without boxing, and can also jump
+    // ahead with advance(), using the skip entries so that intersecting a rare word
+    // with a frequent one does not decode the whole frequent list. Call next() or advance() before
+    // the first document; positions are only decoded when asked for, at most once per document.
+    // Documents a newer segment indexed again are skipped.
+    public static final class Postings {
+        private final MemorySegment postings;
+        private final BitSet superseded;
+        private final MemorySegment positions;
+        private final int size;
+        private final int skipCount;
+        private final long skipsStart;
+        private final long scoresStart;
+        private final long idsStart;
+        private final long positionsStart;
+        private final long[] idOffset;
+        private final long[] positionsOffset;
+        private int index = -1;
+        private int docId = 0;
+        private int positionsIndex = 0; // document whose positions start at positionsOffset
+
+        private Postings(MemorySegment postings, long postingsOffset, MemorySegment positions, long positionsOffset, BitSet superseded) {
+            this.postings = postings;
+            this.superseded = superseded;
+            this.positions = positions;
+            long[] offset = {postingsOffset};
+            this.size = readVInt(postings, offset);
+            this.skipCount = readVInt(postings, offset);
+            this.skipsStart = offset[0];
+            this.scoresStart = skipsStart + (long) skipCount * SKIP_ENTRY_SIZE;
+            this.idsStart = scoresStart + 4L * size;
+            this.positionsStart = positionsOffset;
+            this.idOffset = new long[]{idsStart};
+            this.positionsOffset = new long[]{positionsOffset};
+        }
+
+        // Number of documents in the list, superseded ones included
+        public int size() {
+            return size;
+        }
+
+        public boolean next() {
+            while (index + 1 < size) {
+                index++;
+                docId += readVInt(postings, idOffset);
+                if (superseded == null || !superseded.get(docId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Moves to the first document whose id is >= target, staying put if the current one already
+        // is; false once the list has no such document
+        public boolean advance(int target) {
+            if (index >= 0 && docId >= target) {
+                return true;
+            }
+            // Last skip block whose preceding document is below target
+            int low = 0;
+            int high = skipCount - 1;
+            int skip = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (postings.get(INT, skipsStart + (long) mid * SKIP_ENTRY_SIZE) < target) {
+                    skip = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            // Skip entry k starts at document (k + 1) * SKIP_INTERVAL, only jump forward
+            if (skip >= 0 && (skip + 1) * SKIP_INTERVAL - 1 > index) {
+                long entry = skipsStart + (long) skip * SKIP_ENTRY_SIZE;
+                index = (skip + 1) * SKIP_INTERVAL - 1;
+                docId = postings.get(INT, entry);
+                idOffset[0] = idsStart + postings.get(INT, entry + 4);
+                positionsOffset[0] = positionsStart + postings.get(LONG, entry + 8);
+                positionsIndex = index + 1;
+            }
+            while (next()) {
+                if (docId >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int docId() {
+            return docId;
+        }
+
+        public double score() {
+            return postings.get(FLOAT, scoresStart + 4L * index);
+        }
+
+        // Ascending positions of the word in the current document, at most once per document
+        public int[] positions() {
+            if (positionsIndex > index) {
+                throw new IllegalStateException("Positions of document " + docId + " were already read");
+            }
+            // Skip the lists of the documents whose positions were not asked for
+            while (positionsIndex < index) {
+                int count = readVInt(positions, positionsOffset);
+                long i = positionsOffset[0];
+                for (int n = 0; n < count; n++) {
+                    while (positions.get(ValueLayout.JAVA_BYTE, i++) < 0) {
+                        // continuation byte
+                    }
+                }
+                positionsOffset[0] = i;
+                positionsIndex++;
+            }
+            int count = readVInt(positions, positionsOffset);
+            int[] result = new int[count];
+            int previous = 0;
+            for (int n = 0; n < count; n++) {
+                previous += readVInt(positions, positionsOffset);
+                result[n] = previous;
+            }
+            positionsIndex++;
+            return result;
+        }
+    }
+}
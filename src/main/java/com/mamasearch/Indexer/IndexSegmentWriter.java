@@ -0,0 +1,200 @@
+package com.mamasearch.Indexer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+// Writes an index built by Indexer as an immutable segment, a directory of four files:
+//   terms.dat      the words sorted by their UTF-8 bytes, in blocks of TERM_BLOCK_SIZE. Each entry is
+//                  the length of the prefix shared with the previous word of its block, the rest of
+//                  the word, the document frequency and where the word starts in the other two files
+//                  (8-byte offsets). After the blocks: the block index (first word and offset of every
+//                  block), then a fixed footer with the index offset, the word count and MAGIC.
+//   postings.dat   per word: docCount, skipCount (vbyte), the skip entries, one 4-byte float score per
+//                  document, then the doc id gaps (vbyte). Skip entry k describes the block of
+//                  SKIP_INTERVAL documents starting at document (k + 1) * SKIP_INTERVAL: the id of
+//                  the document before it and where the block starts in the id gaps (4-byte ints) and
+//                  in positions.dat (an 8-byte offset).
+//   positions.dat  per word: the position list of every document as WordData encodes it
+//   docs.dat       the ids of the documents indexed into the segment, as the long words of a BitSet
+// Segments are never changed: a new index replaces all of them, an incremental run adds one. A page
+// a recrawl found changed is indexed again into the newer segment, whose docs.dat then hides its
+// stale postings in the older ones.
+// All offsets into the files are longs, so a file may grow past 2 GB; IndexSegment maps it whole.
+public class IndexSegmentWriter {
+    static final int TERM_BLOCK_SIZE = 64;
+    static final int SKIP_INTERVAL = 128;
+    static final int SKIP_ENTRY_SIZE = 16;
+    static final int FOOTER_SIZE = 16;
+    static final int MAGIC = 0x4D414D42;
+    static final String TERMS_FILE = "terms.dat";
+    static final String POSTINGS_FILE = "postings.dat";
+    static final String POSITIONS_FILE = "positions.dat";
+    static final String DOCUMENTS_FILE = "docs.dat";
+    static final String SEGMENT_PREFIX = "segment-";
+
+    // Writes invertedIndex as the next segment of directory and returns the segment's path. The
+    // segment is written under a temporary name and renamed once complete, so readers never see
+    // half a segment.
+    public static Path write(Path directory, Map<String, Map<Integer, WordData>> invertedIndex, BitSet documents) throws IOException {
+        Files.createDirectories(directory);
+        Path segment = directory.resolve(String.format("%s%08d", SEGMENT_PREFIX, nextSegmentNumber(directory)));
+        Path tmp = directory.resolve(segment.getFileName() + ".tmp");
+        Files.createDirectories(tmp);
+
+        List<byte[]> words = new ArrayList<>(invertedIndex.size());
+        for (String word : invertedIndex.keySet()) {
+            words.add(word.getBytes(StandardCharsets.UTF_8));
+        }
+        words.sort(Arrays::compareUnsigned);
+
+        try (SegmentFile terms = open(tmp.resolve(TERMS_FILE));
+             SegmentFile postings = open(tmp.resolve(POSTINGS_FILE));
+             SegmentFile positions = open(tmp.resolve(POSITIONS_FILE))) {
+            List<byte[]> blockFirstWords = new ArrayList<>();
+            List<Long> blockOffsets = new ArrayList<>();
+            byte[] previous = new byte[0];
+            for (int i = 0; i < words.size(); i++) {
+                byte[] word = words.get(i);
+                if (i % TERM_BLOCK_SIZE == 0) {
+                    blockFirstWords.add(word);
+                    blockOffsets.add(terms.position());
+                    previous = new byte[0];
+                }
+                Map<Integer, WordData> docs = invertedIndex.get(new String(word, StandardCharsets.UTF_8));
+                long postingsOffset = postings.position();
+                long positionsOffset = positions.position();
+                writePostings(docs, postings, positions);
+
+                int shared = Arrays.mismatch(previous, word); // words are unique, never -1
+                writeVInt(terms, shared);
+                writeVInt(terms, word.length - shared);
+                terms.write(word, shared, word.length - shared);
+                writeVInt(terms, docs.size());
+                terms.writeLong(postingsOffset);
+                terms.writeLong(positionsOffset);
+                previous = word;
+            }
+
+            long indexOffset = terms.position();
+            writeVInt(terms, blockFirstWords.size());
+            for (int b = 0; b < blockFirstWords.size(); b++) {
+                writeVInt(terms, blockFirstWords.get(b).length);
+                terms.write(blockFirstWords.get(b));
+                terms.writeLong(blockOffsets.get(b));
+            }
+            terms.writeLong(indexOffset);
+            terms.writeInt(words.size());
+            terms.writeInt(MAGIC);
+        }
+
+        try (SegmentFile docs = open(tmp.resolve(DOCUMENTS_FILE))) {
+            long[] bits = documents.toLongArray();
+            docs.writeInt(bits.length);
+            for (long bit : bits) {
+                docs.writeLong(bit);
+            }
+        }
+
+        Files.move(tmp, segment, StandardCopyOption.ATOMIC_MOVE);
+        return segment;
+    }
+
+    // Postings and positions of one word, documents in ascending id order
+    private static void writePostings(Map<Integer, WordData> docs, SegmentFile postings, SegmentFile positions) throws IOException {
+        int[] IDs = docs.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        int skipCount = (IDs.length - 1) / SKIP_INTERVAL;
+        ByteArrayOutputStream idGaps = new ByteArrayOutputStream(IDs.length * 2);
+        DataOutputStream ids = new DataOutputStream(idGaps);
+        ByteArrayOutputStream skips = new ByteArrayOutputStream(skipCount * SKIP_ENTRY_SIZE);
+        DataOutputStream skipEntries = new DataOutputStream(skips);
+        long positionsStart = positions.position();
+
+        int previous = 0;
+        for (int i = 0; i < IDs.length; i++) {
+            if (i > 0 && i % SKIP_INTERVAL == 0) {
+                skipEntries.writeInt(previous);
+                skipEntries.writeInt(ids.size());
+                skipEntries.writeLong(positions.position() - positionsStart);
+            }
+            writeVInt(ids, IDs[i] - previous);
+            previous = IDs[i];
+            positions.write(docs.get(IDs[i]).getEncodedPositions());
+        }
+
+        writeVInt(postings, IDs.length);
+        writeVInt(postings, skipCount);
+        skips.writeTo(postings);
+        for (int ID : IDs) {
+            postings.writeFloat((float) docs.get(ID).getScore());
+        }
+        idGaps.writeTo(postings);
+    }
+
+    private static int nextSegmentNumber(Path directory) throws IOException {
+        int next = 1;
+        for (Path segment : IndexSegments.listSegments(directory)) {
+            String name = segment.getFileName().toString();
+            next = Math.max(next, Integer.parseInt(name.substring(SEGMENT_PREFIX.length())) + 1);
+        }
+        return next;
+    }
+
+    private static SegmentFile open(Path file) throws IOException {
+        return new SegmentFile(new ByteCounter(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)));
+    }
+
+    // A segment file being written, with a long position: DataOutputStream.size() stops at 2 GB
+    private static final class SegmentFile extends DataOutputStream {
+        private final ByteCounter counter;
+
+        SegmentFile(ByteCounter counter) {
+            super(counter);
+            this.counter = counter;
+        }
+
+        long position() {
+            return counter.count;
+        }
+    }
+
+    private static final class ByteCounter extends FilterOutputStream {
+        private long count = 0;
+
+        ByteCounter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    static void writeVInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
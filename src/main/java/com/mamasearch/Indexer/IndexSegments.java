@@ -0,0 +1,95 @@
+package com.mamasearch.Indexer;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// All segments of an index directory: one per indexer run since the last new index, each covering
+// the documents that run indexed. They are opened once and shared by every query; segments
+// written afterwards are seen the next time the directory is opened.
+public class IndexSegments {
+    public static final Path DEFAULT_DIRECTORY = Paths.get("src", "main", "resources", "Index");
+
+    private final List<IndexSegment> segments;
+
+    private IndexSegments(List<IndexSegment> segments) {
+        this.segments = segments;
+    }
+
+    // Opens the segments of directory, none if it does not exist yet
+    public static IndexSegments open(Path directory) throws IOException {
+        List<IndexSegment> segments = new ArrayList<>();
+        for (Path segment : listSegments(directory)) {
+            segments.add(IndexSegment.open(segment));
+        }
+        // A document in a newer segment was indexed again after a recrawl found it changed
+        BitSet newer = new BitSet();
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (!newer.isEmpty()) {
+                segments.get(i).setSuperseded((BitSet) newer.clone());
+            }
+            newer.or(segments.get(i).getDocuments());
+        }
+        return new IndexSegments(Collections.unmodifiableList(segments));
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    public List<IndexSegment> getSegments() {
+        return segments;
+    }
+
+    // Postings of word, one per segment that has it, oldest segment first
+    public List<IndexSegment.Postings> postings(String word) {
+        List<IndexSegment.Postings> postings = new ArrayList<>(segments.size());
+        for (IndexSegment segment : segments) {
+            IndexSegment.Postings list = segment.postings(word);
+            if (list != null) {
+                postings.add(list);
+            }
+        }
+        return postings;
+    }
+
+    // Deletes the segments of directory written before segment, once a new index written to segment
+    // has replaced them. Segments still mapped by a running reader stay readable there until it is closed.
+    public static void deleteBefore(Path directory, Path segment) throws IOException {
+        for (Path older : listSegments(directory)) {
+            if (older.getFileName().compareTo(segment.getFileName()) >= 0) {
+                continue;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(older)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(older);
+        }
+    }
+
+    // Complete segments of directory in the order they were written; unfinished ".tmp" ones are left out
+    static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, IndexSegmentWriter.SEGMENT_PREFIX + "*")) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry) && !entry.getFileName().toString().endsWith(".tmp")) {
+                    segments.add(entry);
+                }
+            }
+        }
+        segments.sort(Comparator.comparing(Path::getFileName));
+        return segments;
+    }
+}
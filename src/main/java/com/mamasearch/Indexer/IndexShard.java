@@ -0,0 +1,80 @@
+package com.mamasearch.Indexer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The part of the index one indexing worker builds from its own documents. Only that worker writes
+// it, so it needs no lock. Its words are split into PARTITIONS by hash, the same way in every shard,
+// so partition p of all shards can be merged without looking at the other partitions.
+class IndexShard {
+    static final int PARTITIONS = 64;
+
+    private final List<Map<String, Map<Integer, WordData>>> partitions = new ArrayList<>(PARTITIONS);
+    private int documentCount = 0;
+    private final BitSet documentIDs = new BitSet();
+
+    IndexShard() {
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.add(new HashMap<>());
+        }
+    }
+
+    static int partitionOf(String word) {
+        return Math.floorMod(word.hashCode(), PARTITIONS);
+    }
+
+    // Adds one posting per word of a document, built from its statistics; until the merge the score
+    // of each holds its weighted TF. The parsed words are not kept.
+    void addDocument(DocumentData document) {
+        Integer ID = document.getID();
+        DocumentStats stats = document.getStats();
+        for (Map.Entry<String, DocumentStats.TermStats> term : stats.getTerms().entrySet()) {
+            WordData posting = new WordData(term.getValue().getPositions(), stats.getWeightedTF(term.getValue()));
+            partitions.get(partitionOf(term.getKey()))
+                    .computeIfAbsent(term.getKey(), k -> new HashMap<>())
+                    .put(ID, posting);
+        }
+        documentCount++;
+        documentIDs.set(ID);
+    }
+
+    int getDocumentCount() {
+        return documentCount;
+    }
+
+    BitSet getDocumentIDs() {
+        return documentIDs;
+    }
+
+    // Hands over one partition, the shard no longer holds it afterwards
+    Map<String, Map<Integer, WordData>> takePartition(int partition) {
+        Map<String, Map<Integer, WordData>> taken = partitions.get(partition);
+        partitions.set(partition, null);
+        return taken;
+    }
+
+    // Merges partition p of every shard and turns the TF of each posting into its TF-IDF score.
+    // A document is in exactly one shard, so the posting lists of a word never overlap; a word's
+    // document frequency is the length of its merged posting list.
+    static Map<String, Map<Integer, WordData>> mergePartition(List<IndexShard> shards, int partition, int documentCount) {
+        Map<String, Map<Integer, WordData>> merged = new HashMap<>();
+        for (IndexShard shard : shards) {
+            for (Map.Entry<String, Map<Integer, WordData>> entry : shard.takePartition(partition).entrySet()) {
+                Map<Integer, WordData> docs = merged.putIfAbsent(entry.getKey(), entry.getValue());
+                if (docs != null) {
+                    docs.putAll(entry.getValue());
+                }
+            }
+        }
+        for (Map<Integer, WordData> docs : merged.values()) {
+            double idf = Math.log(1 + ((double) documentCount / docs.size()));
+            for (WordData data : docs.values()) {
+                data.setScore(data.getScore() * idf);
+            }
+        }
+        return merged;
+    }
+}
@@ -1,4 +1,8 @@
 package com.mamasearch.Indexer;
+import org.bson.Document;
+
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -6,74 +10,124 @@ import java.util.concurrent.*;
 import java.util.ArrayList;
 
 public class Indexer {
+    private static final int QUEUE_CAPACITY = 256; // crawled pages waiting for a worker
+    private static final Document END_OF_PAGES = new Document();
     private final Map<String, Map<Integer, WordData>> invertedIndex = new HashMap<>();
+    private int lastDocumentID = 0;
+    private final BitSet indexedDocuments = new BitSet();
 
-    public void processDocuments(List<DocumentData> documents) {
-        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // Builds the index in parallel without sharing anything while documents are added: the Mongo
+    // cursor feeds crawled pages through a bounded queue to one worker per core, and each worker
+    // parses its pages into its own IndexShard. Once all pages are in, the shards are merged by word
+    // partition in parallel and the TF-IDF scores are computed in the same pass. Besides the index at
+    // most QUEUE_CAPACITY pages are in memory however large the crawl is.
+    // Returns false if the build failed or was interrupted, the index is then left empty.
+    public boolean buildIndex(IndexerMongoDBConnection mongo, boolean newIndex) {
+        int workerCount = Runtime.getRuntime().availableProcessors();
+        BlockingQueue<Document> pages = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
 
-        for (DocumentData document : documents) {
-            executor.submit(() -> {
-                List<ParsedWord> filteredWords = document.getFilteredWords();
-                for (ParsedWord pw : filteredWords) {
-                    synchronized (this) {
-                        addWord(pw.getWord(), document.getID(), pw.getPosition());
-                    }
-                }
-            });
+        List<IndexShard> shards = new ArrayList<>();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            IndexShard shard = new IndexShard();
+            shards.add(shard);
+            workers.add(executor.submit(() -> indexLoop(pages, shard)));
         }
 
-        executor.shutdown();
         try {
-            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            int lastID = mongo.forEachDocument(newIndex, page -> put(pages, page, workers));
+            for (int i = 0; i < workerCount; i++) {
+                put(pages, END_OF_PAGES, workers);
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+
+            int documentCount = shards.stream().mapToInt(IndexShard::getDocumentCount).sum();
+            List<Future<Map<String, Map<Integer, WordData>>>> partitions = new ArrayList<>();
+            for (int p = 0; p < IndexShard.PARTITIONS; p++) {
+                int partition = p;
+                partitions.add(executor.submit(() -> IndexShard.mergePartition(shards, partition, documentCount)));
+            }
+            for (Future<Map<String, Map<Integer, WordData>>> partition : partitions) {
+                invertedIndex.putAll(partition.get());
+            }
+            for (IndexShard shard : shards) {
+                indexedDocuments.or(shard.getDocumentIDs());
+            }
+            lastDocumentID = lastID;
+            return true;
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            System.err.println("Index build interrupted");
+        } catch (ExecutionException | RuntimeException e) {
+            System.err.println("Index build failed: " + (e.getCause() != null ? e.getCause() : e));
+        } finally {
+            executor.shutdownNow();
         }
+        invertedIndex.clear();
+        return false;
+    }
 
-        Map<String, Map<Integer, Double>> tfidfScores = TFIDFScorer.calculateTFIDF(documents);
-        for (String word : tfidfScores.keySet()) {
-            Map<Integer, Double> docs = tfidfScores.get(word);
-            for (Integer ID : docs.keySet()) {
-                synchronized (this) {
-                    addScore(word, ID, docs.get(ID));
+    // Blocks while the workers are behind; fails instead of waiting forever once every worker
+    // has stopped
+    private static <T> void put(BlockingQueue<T> queue, T item, List<Future<?>> consumers) {
+        try {
+            while (!queue.offer(item, 1, TimeUnit.SECONDS)) {
+                if (consumers.stream().allMatch(Future::isDone)) {
+                    for (Future<?> consumer : consumers) {
+                        consumer.get();
+                    }
+                    throw new CancellationException("Every index worker stopped");
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Index build interrupted");
+        } catch (ExecutionException e) {
+            throw new CancellationException("An index worker failed: " + e.getCause());
         }
     }
-//    public void processDocuments(List<DocumentData> documents) {
-//
-//        for (DocumentData document : documents) {
-//            List<ParsedWord> filteredWords = document.getFilteredWords();
-//            for (ParsedWord pw : filteredWords) {
-//                addWord(pw.getWord(), document.getUrl(), pw.getPosition());
-//            }
-//        }
-//
-//        Map<String, Map<String, Double>> tfidfScores = TFIDFScorer.calculateTFIDF(documents);
-//
-//        for (String word : tfidfScores.keySet()) {
-//            Map<String, Double> docs = tfidfScores.get(word);
-//            for (String url : docs.keySet()) {
-//                addScore(word, url, docs.get(url));
-//            }
-//        }
-//    }
 
+    // Worker loop, parses crawled pages into the worker's shard until END_OF_PAGES
+    private static void indexLoop(BlockingQueue<Document> pages, IndexShard shard) {
+        while (true) {
+            Document page;
+            try {
+                page = pages.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (page == END_OF_PAGES) {
+                return;
+            }
+            DocumentData document;
+            try {
+                document = IndexerMongoDBConnection.toDocumentData(page);
+            } catch (RuntimeException e) {
+                System.err.println("Error parsing document " + page.get("id") + ": " + e.getMessage());
+                continue;
+            }
+            if (document != null) {
+                shard.addDocument(document);
+            }
+        }
+    }
 
-    public Map<String, Map<Integer, WordData>> getInvertedIndex() {
-        return invertedIndex;
+    // Highest crawled page id the last successful build covered, save it with
+    // IndexerMongoDBConnection.saveMaxID once the index is stored
+    public int getLastDocumentID() {
+        return lastDocumentID;
     }
 
-    public void addWord(String word, Integer ID, int position) {
-        invertedIndex
-                .computeIfAbsent(word, k -> new HashMap<>())
-                .computeIfAbsent(ID, k -> new WordData())
-                .addPosition(position);
+    // Ids of the documents the last successful build indexed
+    public BitSet getIndexedDocuments() {
+        return indexedDocuments;
     }
 
-    public void addScore(String word, Integer ID, double score) {
-        if (invertedIndex.containsKey(word) && invertedIndex.get(word).containsKey(ID)) {
-            invertedIndex.get(word).get(ID).setScore(score);
-        }
+    public Map<String, Map<Integer, WordData>> getInvertedIndex() {
+        return invertedIndex;
     }
 
     public void printIndex() {
@@ -83,7 +137,7 @@ public class Indexer {
             for (Integer ID : docs.keySet()) {
                 WordData data = docs.get(ID);
                 System.out.println("  ID: " + ID);
-                System.out.println("    Positions: " + data.getPositions());
+                System.out.println("    Positions: " + Arrays.toString(data.getPositions()));
                 System.out.println("    TF-IDF Score: " + data.getScore());
             }
         }
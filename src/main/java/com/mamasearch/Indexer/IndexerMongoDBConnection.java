@@ -4,24 +4,38 @@ import DBClient.MongoDBClient;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
 import org.bson.Document;
-
-import java.util.ArrayList;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.jsoup.Jsoup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.InflaterInputStream;
 
 public class IndexerMongoDBConnection {
     private MongoClient mongoClient;
     private MongoDatabase database;
     private static final String DB_NAME = "MAMA_Search";
     private MongoCollection<Document> crawledDataCollection;
-    private MongoCollection<Document> invertedIndexCollection;
     private MongoCollection<Document> lastCrawledDataCollection;
     private static final String crawledDataCollectionName = "crawled_data";
+    // Where indexes were stored before they were written as segments
     private static final String invertedIndexCollectionName = "inverted_index";
     private static final String lastCrawledDataCollectionName = "last_crawled_data";
+    private static final int CURSOR_BATCH_SIZE = 100; // pages per cursor round trip
+    // The fields toDocumentData reads, the rest of a crawled page is not sent
+    private static final Bson PAGE_FIELDS = Projections.include("id", "url", "title", "h1", "h2", "h3", "text", "body", "charset", "content");
 
 
     public IndexerMongoDBConnection() {
@@ -30,82 +44,84 @@ public class IndexerMongoDBConnection {
         database = mongoClient.getDatabase(DB_NAME);
         System.out.println("Connected to database " + this.database);
         this.crawledDataCollection = database.getCollection(crawledDataCollectionName);
-        this.invertedIndexCollection = database.getCollection(invertedIndexCollectionName);
         this.lastCrawledDataCollection = database.getCollection(lastCrawledDataCollectionName);
     }
 
-    public void insertInvertedIndex(Map<String, Map<Integer, WordData>> invertedIndex) {
-        System.out.println("Total number of words: " + invertedIndex.size());
-        for (String word : invertedIndex.keySet()) {
-            Map<Integer, WordData> docs = invertedIndex.get(word);
-
-            List<Document> IDsList = new ArrayList<>();
-
-            for (Map.Entry<Integer, WordData> entry : docs.entrySet()) {
-                Integer ID = entry.getKey();
-                WordData wordData = entry.getValue();
-
-                Document DocID = new Document("id", ID)
-                        .append("positions", wordData.getPositions())
-                        .append("score", wordData.getScore());
-
-                IDsList.add(DocID);
+    // Hands the crawled pages to index to consumer one by one, straight from the cursor: all of them
+    // for a new index, otherwise those crawled since the last run and those a revisit found changed
+    // (flagged with needsIndex). Nothing is collected here, the
+    // consumer decides how many pages are held at once. Returns the highest page id seen; it is not
+    // saved here, an index that fails to build must not move the next run past its pages.
+    public int forEachDocument(boolean newIndex, Consumer<Document> consumer) {
+        int maxID = 0;
+        Bson filter = new Document();
+        if (!newIndex) {
+            Document lastCrawledDoc = lastCrawledDataCollection.find().first();
+            if (lastCrawledDoc != null) {
+                maxID = lastCrawledDoc.getInteger("maxID");
             }
-
-            Document document = new Document("word", word)
-                    .append("ids", IDsList);
-
-            invertedIndexCollection.insertOne(document);
+            filter = Filters.or(Filters.gt("id", maxID), Filters.eq("needsIndex", true));
         }
-    }
-
-
-
-    public List<DocumentData> getDocuments(boolean newIndex) {
-        List<DocumentData> documents = new ArrayList<>();
-        int maxID = 0;
-        if (newIndex) {
-            deleteAllInvertedIndex();
-            for (Document doc : crawledDataCollection.find()) {
+        try (MongoCursor<Document> cursor = crawledDataCollection.find(filter).projection(PAGE_FIELDS)
+                .batchSize(CURSOR_BATCH_SIZE).iterator()) {
+            while (cursor.hasNext()) {
+                Document doc = cursor.next();
                 Integer ID = doc.getInteger("id");
-                String content = doc.getString("content");
-                if (content != null) {
-                    documents.add(new DocumentData(ID, content));
-                }
                 if (ID > maxID) {
                     maxID = ID;
                 }
+                consumer.accept(doc);
             }
         }
-        else {
-           for (Document doc : crawledDataCollection.find()) {
-               Document lastCrawledDoc = lastCrawledDataCollection.find().first();
-               if (lastCrawledDoc != null) {
-                   maxID = lastCrawledDoc.getInteger("maxID");
-               }
-               Integer ID = doc.getInteger("id");
-               String content = doc.getString("content");
-               if (content != null && ID > maxID) {
-                   documents.add(new DocumentData(ID, content));
-               }
-               if (ID > maxID) {
-                   maxID = ID;
-               }
-           }
-        }
+        return maxID;
+    }
+
+    // Records the highest page id indexed, the next incremental run starts after it
+    public void saveMaxID(int maxID) {
         lastCrawledDataCollection.updateOne(
                 new Document(), // Match all (since only one doc exists)
                 new Document("$set", new Document("maxID", maxID)),
                 new UpdateOptions().upsert(true)
         );
-        return documents;
     }
 
+    // Clears the reindex flag of the pages changed before changedBefore, once an index holding them
+    // is written. Pages changed again while the index was built keep it for the next run.
+    public void clearNeedsIndex(Date changedBefore) {
+        crawledDataCollection.updateMany(
+                Filters.and(Filters.eq("needsIndex", true), Filters.lte("changedAt", changedBefore)),
+                Updates.unset("needsIndex"));
+    }
+
+
+    // Reads a crawled page. Pages crawled since the crawler extracts their fields come with title,
+    // headings and text and need no HTML parsing. For older ones the stored body is inflated straight
+    // into jsoup with the charset the crawler decoded it with; pages stored before bodies were kept
+    // raw still have their HTML in "content". Returns null for a page without content.
+    static DocumentData toDocumentData(Document doc) {
+        Integer ID = doc.getInteger("id");
+        List<String> text = doc.getList("text", String.class);
+        if (text != null) {
+            return new DocumentData(ID, doc.getString("title"), doc.getList("h1", String.class, List.of()),
+                    doc.getList("h2", String.class, List.of()), doc.getList("h3", String.class, List.of()), text);
+        }
+        Binary body = doc.get("body", Binary.class);
+        if (body != null) {
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(body.getData()))) {
+                String url = doc.getString("url");
+                return new DocumentData(ID, Jsoup.parse(in, doc.getString("charset"), url != null ? url : ""));
+            } catch (IOException e) {
+                System.err.println("Error reading body of document " + ID + ": " + e.getMessage());
+                return null;
+            }
+        }
+        String content = doc.getString("content");
+        return content != null ? new DocumentData(ID, content) : null;
+    }
 
-    public void deleteAllInvertedIndex() {
-        invertedIndexCollection.drop();
-        database.createCollection(invertedIndexCollectionName);
-        this.invertedIndexCollection = database.getCollection(invertedIndexCollectionName);
+    // Drops the postings an index stored in MongoDB before segments, nothing reads them any more
+    public void dropLegacyInvertedIndex() {
+        database.getCollection(invertedIndexCollectionName).drop();
     }
 
     public void close() {
@@ -0,0 +1,79 @@
+package com.mamasearch.Indexer;
+
+import java.util.Arrays;
+
+// Compact position lists. Integers are variable-byte coded, 7 bits per byte with the high bit set on
+// every byte but the last, and the ascending positions are stored as gaps from their predecessor,
+// so the positions of a word in a document mostly take one byte each. A list is its count, then the
+// position gaps; WordData keeps its positions this way and IndexSegmentWriter copies them as they are.
+public final class PostingCodec {
+    private PostingCodec() {
+    }
+
+    // Growable byte array, the encoders write into it
+    private static class ByteWriter {
+        private byte[] bytes;
+        private int length = 0;
+
+        ByteWriter(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void writeVInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+
+    // Encodes ascending positions
+    public static byte[] encodePositions(int[] positions) {
+        ByteWriter out = new ByteWriter(positions.length + 1);
+        out.writeVInt(positions.length);
+        int previous = 0;
+        for (int position : positions) {
+            out.writeVInt(position - previous);
+            previous = position;
+        }
+        return out.toByteArray();
+    }
+
+    public static int[] decodePositions(byte[] encoded) {
+        int[] offset = {0};
+        int count = readVInt(encoded, offset);
+        int[] positions = new int[count];
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += readVInt(encoded, offset);
+            positions[i] = previous;
+        }
+        return positions;
+    }
+
+    // Reads a variable-byte integer at offset[0] and moves offset[0] past it
+    private static int readVInt(byte[] bytes, int[] offset) {
+        int i = offset[0];
+        int b = bytes[i++];
+        int value = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = bytes[i++];
+            value |= (b & 0x7F) << shift;
+        }
+        offset[0] = i;
+        return value;
+    }
+}
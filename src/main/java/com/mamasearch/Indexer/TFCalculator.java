@@ -15,26 +15,19 @@ public class TFCalculator {
         tagWeights.put("normal", 1.0);
     }
 
-    public static Map<String, Double> calculateWeightedTF(List<ParsedWord> parsedWords) {
-        Map<String, Double> weightedCount = new HashMap<>();
-        double totalWeightedWords = 0;
-
-        // Count weighted frequency
-        for (ParsedWord word : parsedWords) {
-            String term = word.getWord();
-            String tag = word.getTag();
-            double weight = tagWeights.getOrDefault(tag, 1.0);
+    public static double weightOf(String tag) {
+        return tagWeights.getOrDefault(tag, 1.0);
+    }
 
-            weightedCount.put(term, weightedCount.getOrDefault(term, 0.0) + weight);
-            totalWeightedWords += weight;
-        }
+    public static Map<String, Double> calculateWeightedTF(List<ParsedWord> parsedWords) {
+        return calculateWeightedTF(DocumentStats.of(parsedWords));
+    }
 
-        // Normalize
+    public static Map<String, Double> calculateWeightedTF(DocumentStats stats) {
         Map<String, Double> tfScores = new HashMap<>();
-        for (Map.Entry<String, Double> entry : weightedCount.entrySet()) {
-            tfScores.put(entry.getKey(), entry.getValue() / totalWeightedWords);
+        for (Map.Entry<String, DocumentStats.TermStats> entry : stats.getTerms().entrySet()) {
+            tfScores.put(entry.getKey(), stats.getWeightedTF(entry.getValue()));
         }
-
         return tfScores;
     }
 }
@@ -1,5 +1,8 @@
 package com.mamasearch.Indexer;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -28,8 +31,27 @@ public class TestingMain {
             System.out.println("Starting a new Indexer...");
             newIndex = true;
         }
-            indexer.processDocuments(mongo.getDocuments(newIndex));
-            mongo.insertInvertedIndex(indexer.getInvertedIndex());
+            Date buildStart = new Date();
+            if (!indexer.buildIndex(mongo, newIndex)) {
+                System.err.println("Index build failed, the stored index is left as it was");
+            } else {
+                // The postings go to a segment on disk, queries read them from there instead of MongoDB.
+                // A new index replaces the old one only once its segment is complete.
+                try {
+                    Path segment = IndexSegmentWriter.write(IndexSegments.DEFAULT_DIRECTORY, indexer.getInvertedIndex(),
+                            indexer.getIndexedDocuments());
+                    System.out.println("Index segment written to " + segment);
+                    if (newIndex) {
+                        IndexSegments.deleteBefore(IndexSegments.DEFAULT_DIRECTORY, segment);
+                        mongo.dropLegacyInvertedIndex();
+                    }
+                    // Only now are these pages indexed for good
+                    mongo.saveMaxID(indexer.getLastDocumentID());
+                    mongo.clearNeedsIndex(buildStart);
+                } catch (IOException e) {
+                    System.err.println("Error writing index segment: " + e.getMessage());
+                }
+            }
 
         scanner.close();
         mongo.close();
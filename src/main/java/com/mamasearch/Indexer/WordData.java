@@ -1,17 +1,22 @@
 package com.mamasearch.Indexer;
-import java.util.ArrayList;
-import java.util.List;
 
+// One posting: where a word occurs in a document and its score there. The positions are kept
+// encoded (see PostingCodec), a few bytes instead of a list of boxed integers.
 public class WordData {
-    private List<Integer> positions;
+    private final byte[] positions;
     private double score;
 
-    public WordData() {
-        this.positions = new ArrayList<>();
-        this.score = 0.0;
+    // positions must be ascending
+    public WordData(int[] positions, double score) {
+        this.positions = PostingCodec.encodePositions(positions);
+        this.score = score;
+    }
+
+    public int[] getPositions() {
+        return PostingCodec.decodePositions(positions);
     }
 
-    public List<Integer> getPositions() {
+    byte[] getEncodedPositions() {
         return positions;
     }
 
@@ -19,10 +24,6 @@ public class WordData {
         return score;
     }
 
-    public void addPosition(int position) {
-        this.positions.add(position);
-    }
-
     public void setScore(double score) {
         this.score = score;
     }